@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Source array elements partitioned by the keys of $groupBy.
+ *
+ * Elements are added in one pass and hashed by key, each group is read as a
+ * source node {"$key":key, "$group":[elements]}. The key is the value of the
+ * only $groupBy key, or the array of the values of many keys. Groups are read
+ * in the order of their first element.
+ *
+ * With a spill threshold, the elements held in memory are written to partition
+ * files of the spill folder whenever the threshold is reached. The groups are
+ * then read one partition at a time, so memory holds the largest partition
+ * instead of the whole array, and groups are not in the order of their first element.
+ */
+final class ArrayGroups implements Closeable
+{
+    /** Number of spill files, elements of a group are always in the same file */
+    static final int SPILL_PARTITIONS = 16;
+
+    private final ObjectMapper mapper;
+    private final List<JsonNode> keyNodes;
+    private final int spillThreshold;
+    private final File spillFolder;
+
+    /** Groups held in memory by key */
+    private Map<JsonNode, ArrayNode> groups = new LinkedHashMap<JsonNode, ArrayNode>();
+
+    /** Number of elements held in memory */
+    private int elementCount;
+
+    /** Spill files and their writers, null until the first spill */
+    private File[] spillFiles;
+    private JsonGenerator[] spillWriters;
+
+    /** The groups being read and the next partition to read */
+    private Iterator<Map.Entry<JsonNode, ArrayNode>> readGroups;
+    private int readPartition;
+
+    ArrayGroups(
+        final ObjectMapper mapper,
+        final List<JsonNode> keyNodes,
+        final int spillThreshold,
+        final File spillFolder)
+    {
+        this.mapper = mapper;
+        this.keyNodes = keyNodes;
+        this.spillThreshold = spillThreshold;
+        this.spillFolder = spillFolder;
+    }
+
+    void add(
+        final JsonNode element,
+        final TransformContext context)
+    throws ObjectTransformerException, IOException
+    {
+        JsonNode key;
+        if (keyNodes.size() == 1)
+        {
+            key = getKey(element, keyNodes.get(0), context);
+        }
+        else
+        {
+            ArrayNode keys = mapper.createArrayNode();
+            for (JsonNode keyNode : keyNodes)
+            {
+                keys.add(getKey(element, keyNode, context));
+            }
+            key = keys;
+        }
+
+        ArrayNode group = groups.get(key);
+        if (group == null)
+        {
+            group = mapper.createArrayNode();
+            groups.put(key, group);
+        }
+        group.add(element);
+
+        if (spillThreshold > 0 && ++elementCount >= spillThreshold)
+        {
+            spill();
+        }
+    }
+
+    private static JsonNode getKey(
+        final JsonNode element,
+        final JsonNode keyNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        // missing keys are grouped as null
+        JsonNode key = context.transformExpression(element, keyNode);
+        return key == null || key.isMissingNode() ? NullNode.getInstance() : key;
+    }
+
+    boolean isSpilled()
+    {
+        return spillFiles != null;
+    }
+
+    /**
+     * The next group source node, null after the last group.
+     */
+    ObjectNode next()
+    throws IOException
+    {
+        if (readGroups == null)
+        {
+            if (isSpilled())
+            {
+                // the groups of memory join their partitions
+                spill();
+                for (JsonGenerator spillWriter : spillWriters)
+                {
+                    spillWriter.close();
+                }
+                spillWriters = null;
+            }
+            readGroups = groups.entrySet().iterator();
+        }
+
+        while (!readGroups.hasNext())
+        {
+            if (!isSpilled() || readPartition == SPILL_PARTITIONS)
+            {
+                return null;
+            }
+            readGroups = readPartition(readPartition++).entrySet().iterator();
+        }
+
+        Map.Entry<JsonNode, ArrayNode> group = readGroups.next();
+        readGroups.remove();
+        ObjectNode groupNode = mapper.createObjectNode();
+        groupNode.set(ObjectTransformer.GROUP_KEY, group.getKey());
+        groupNode.set(ObjectTransformer.GROUP_ELEMENTS, group.getValue());
+
+        return groupNode;
+    }
+
+    /**
+     * Append the groups held in memory to the partition files as [key, element] pairs.
+     */
+    private void spill()
+    throws IOException
+    {
+        if (spillFiles == null)
+        {
+            spillFiles = new File[SPILL_PARTITIONS];
+            spillWriters = new JsonGenerator[SPILL_PARTITIONS];
+            for (int i = 0; i < SPILL_PARTITIONS; i++)
+            {
+                spillFiles[i] = File.createTempFile("groups", ".json", spillFolder);
+                spillWriters[i] = mapper.getFactory().createGenerator(spillFiles[i], JsonEncoding.UTF8);
+            }
+        }
+
+        for (Map.Entry<JsonNode, ArrayNode> group : groups.entrySet())
+        {
+            JsonGenerator spillWriter = spillWriters[partition(group.getKey())];
+            for (JsonNode element : group.getValue())
+            {
+                spillWriter.writeStartArray();
+                mapper.writeTree(spillWriter, group.getKey());
+                mapper.writeTree(spillWriter, element);
+                spillWriter.writeEndArray();
+            }
+        }
+        groups.clear();
+        elementCount = 0;
+    }
+
+    private Map<JsonNode, ArrayNode> readPartition(final int partition)
+    throws IOException
+    {
+        groups = new LinkedHashMap<JsonNode, ArrayNode>();
+        try (JsonParser parser = mapper.getFactory().createParser(spillFiles[partition]))
+        {
+            while (parser.nextToken() != null)
+            {
+                JsonNode pair = mapper.readTree(parser);
+                ArrayNode group = groups.get(pair.get(0));
+                if (group == null)
+                {
+                    group = mapper.createArrayNode();
+                    groups.put(pair.get(0), group);
+                }
+                group.add(pair.get(1));
+            }
+        }
+        spillFiles[partition].delete();
+
+        return groups;
+    }
+
+    private static int partition(final JsonNode key)
+    {
+        return (key.hashCode() & Integer.MAX_VALUE) % SPILL_PARTITIONS;
+    }
+
+    /**
+     * Delete the spill files.
+     */
+    @Override
+    public void close()
+    throws IOException
+    {
+        if (spillWriters != null)
+        {
+            for (JsonGenerator spillWriter : spillWriters)
+            {
+                spillWriter.close();
+            }
+            spillWriters = null;
+        }
+        if (spillFiles != null)
+        {
+            for (File spillFile : spillFiles)
+            {
+                spillFile.delete();
+            }
+        }
+        groups.clear();
+    }
+}
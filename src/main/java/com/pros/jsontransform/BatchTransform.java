@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+/**
+ * Transform many sources with one compiled plan.
+ * Each thread reuses one context for all the sources it transforms.
+ */
+final class BatchTransform
+{
+    private final ObjectTransformer transformer;
+    private final TransformPlan plan;
+
+    BatchTransform(
+        final ObjectTransformer transformer,
+        final TransformPlan plan)
+    {
+        this.transformer = transformer;
+        this.plan = plan;
+    }
+
+    List<TransformResult> transform(final Iterator<JsonNode> sourceRoots)
+    {
+        List<TransformResult> results = new ArrayList<TransformResult>();
+        TransformContext context = new TransformContext(transformer, MissingNode.getInstance());
+        int index = 0;
+        while (sourceRoots.hasNext())
+        {
+            results.add(transform(index++, sourceRoots.next(), context));
+        }
+
+        return results;
+    }
+
+    List<TransformResult> transform(
+        final Iterator<JsonNode> sourceRoots,
+        final ExecutorService executor)
+    throws InterruptedException
+    {
+        final List<JsonNode> sources = new ArrayList<JsonNode>();
+        while (sourceRoots.hasNext())
+        {
+            sources.add(sourceRoots.next());
+        }
+
+        // workers take the next source until all are done, results keep the source order
+        final TransformResult[] results = new TransformResult[sources.size()];
+        final AtomicInteger nextIndex = new AtomicInteger();
+        int workerCount = Math.min(sources.size(), Runtime.getRuntime().availableProcessors());
+        List<Future<?>> workers = new ArrayList<Future<?>>(workerCount);
+        for (int i = 0; i < workerCount; i++)
+        {
+            workers.add(executor.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    TransformContext context = new TransformContext(transformer, MissingNode.getInstance());
+                    int index;
+                    while ((index = nextIndex.getAndIncrement()) < results.length)
+                    {
+                        results[index] = transform(index, sources.get(index), context);
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> worker : workers)
+        {
+            try
+            {
+                worker.get();
+            }
+            catch (ExecutionException eEx)
+            {
+                // transform reports all exceptions in results
+                throw new IllegalStateException(eEx.getCause());
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    private TransformResult transform(
+        final int index,
+        final JsonNode sourceRoot,
+        final TransformContext context)
+    {
+        try
+        {
+            return new TransformResult(index, transformer.transform(sourceRoot, plan, context), null);
+        }
+        catch (Exception ex)
+        {
+            return new TransformResult(index, null, ex);
+        }
+    }
+}
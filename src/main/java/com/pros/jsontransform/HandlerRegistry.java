@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.pros.jsontransform.constraint.Constraint;
+import com.pros.jsontransform.constraint.ConstraintHandler;
+import com.pros.jsontransform.expression.Function;
+import com.pros.jsontransform.expression.FunctionHandler;
+import com.pros.jsontransform.filter.ArrayFilter;
+import com.pros.jsontransform.filter.ArrayFilterHandler;
+import com.pros.jsontransform.plugin.ConstraintPlugin;
+import com.pros.jsontransform.plugin.FilterPlugin;
+import com.pros.jsontransform.plugin.FunctionPlugin;
+import com.pros.jsontransform.plugin.Plugin;
+import com.pros.jsontransform.plugin.PluginManager;
+import com.pros.jsontransform.plugin.SortPlugin;
+import com.pros.jsontransform.sort.ArraySort;
+import com.pros.jsontransform.sort.ArraySortHandler;
+
+/**
+ * Find the handlers of functions, filters, constraints and sorts by directive name.
+ *
+ * Names are matched ignoring case against the built-in handlers and the plugins
+ * registered from ServiceLoader, other names identify plugin classes. A name is
+ * resolved once, then it is a single lookup.
+ *
+ * A registry holds one version of the plugins. It is referenced by the ObjectTransformer
+ * while current and by each running transformation, the plugin class loader is
+ * closed when the last reference is released.
+ */
+final class HandlerRegistry
+{
+    private final Handlers<FunctionHandler> functions;
+    private final Handlers<ArrayFilterHandler> filters;
+    private final Handlers<ConstraintHandler> constraints;
+    private final Handlers<ArraySortHandler> sorts;
+
+    /** The plugin version, incremented on each reload */
+    final long version;
+
+    private final PluginManager pluginManager;
+
+    /** References to this version, 0 once released by all */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    /** Log tool */
+    private static final Logger logger = Logger.getLogger(ObjectTransformer.class);
+
+    HandlerRegistry(final PluginManager pluginManager, final boolean warmUp, final long version)
+    {
+        this.version = version;
+        this.pluginManager = pluginManager;
+        functions = new Handlers<FunctionHandler>(Function.values())
+        {
+            @Override
+            FunctionHandler getPlugin(final String pluginClassName)
+            {
+                return pluginManager.getFunctionPlugin(pluginClassName);
+            }
+        };
+        filters = new Handlers<ArrayFilterHandler>(ArrayFilter.values())
+        {
+            @Override
+            ArrayFilterHandler getPlugin(final String pluginClassName)
+            {
+                return pluginManager.getFilterPlugin(pluginClassName);
+            }
+        };
+        constraints = new Handlers<ConstraintHandler>(Constraint.values())
+        {
+            @Override
+            ConstraintHandler getPlugin(final String pluginClassName)
+            {
+                return pluginManager.getConstraintPlugin(pluginClassName);
+            }
+        };
+        sorts = new Handlers<ArraySortHandler>(ArraySort.values())
+        {
+            @Override
+            ArraySortHandler getPlugin(final String pluginClassName)
+            {
+                return pluginManager.getSortPlugin(pluginClassName);
+            }
+        };
+
+        functions.register(pluginManager.loadServicePlugins(FunctionPlugin.class), warmUp);
+        filters.register(pluginManager.loadServicePlugins(FilterPlugin.class), warmUp);
+        constraints.register(pluginManager.loadServicePlugins(ConstraintPlugin.class), warmUp);
+        sorts.register(pluginManager.loadServicePlugins(SortPlugin.class), warmUp);
+    }
+
+    /**
+     * Add a reference, false if this version was released by all.
+     */
+    boolean retain()
+    {
+        while (true)
+        {
+            int count = references.get();
+            if (count == 0)
+            {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    void release()
+    {
+        if (references.decrementAndGet() == 0)
+        {
+            try
+            {
+                pluginManager.close();
+            }
+            catch (IOException ex)
+            {
+                logger.warn("Cannot close plugin version " + version, ex);
+            }
+        }
+    }
+
+    FunctionHandler getFunction(final String name)
+    {
+        return functions.get(name);
+    }
+
+    ArrayFilterHandler getFilter(final String name)
+    {
+        return filters.get(name);
+    }
+
+    ConstraintHandler getConstraint(final String name)
+    {
+        return constraints.get(name);
+    }
+
+    ArraySortHandler getSort(final String name)
+    {
+        return sorts.get(name);
+    }
+
+    /**
+     * The handlers of one kind of directive.
+     */
+    private abstract static class Handlers<H>
+    {
+        /** Built-in and registered plugin handlers by upper case name */
+        private final Map<String, H> builtIns = new HashMap<String, H>();
+
+        /** Handlers by name as found in transform maps */
+        private final ConcurrentHashMap<String, H> handlers = new ConcurrentHashMap<String, H>();
+
+        Handlers(final Enum<?>[] builtIns)
+        {
+            for (Enum<?> builtIn : builtIns)
+            {
+                @SuppressWarnings("unchecked")
+                H handler = (H)builtIn;
+                this.builtIns.put(builtIn.name(), handler);
+                this.handlers.put(builtIn.name(), handler);
+            }
+        }
+
+        /**
+         * Register plugins by name, names of built-ins and of plugins registered
+         * before are kept.
+         */
+        void register(final List<? extends Plugin> plugins, final boolean warmUp)
+        {
+            for (Plugin plugin : plugins)
+            {
+                String name = plugin.getName().toUpperCase();
+                if (builtIns.containsKey(name))
+                {
+                    logger.warn("Plugin " + plugin.getClass().getName() + " ignored, name "
+                        + plugin.getName() + " is already used");
+                    continue;
+                }
+                if (warmUp)
+                {
+                    plugin.warmUp();
+                }
+                @SuppressWarnings("unchecked")
+                H handler = (H)plugin;
+                builtIns.put(name, handler);
+            }
+        }
+
+        H get(final String name)
+        {
+            H handler = handlers.get(name);
+            if (handler == null)
+            {
+                handler = builtIns.get(name.toUpperCase());
+                if (handler == null)
+                {
+                    // the name without $ identifies a plugin class
+                    handler = getPlugin(name.replaceFirst("\\$", ""));
+                }
+                H existing = handlers.putIfAbsent(name, handler);
+                if (existing != null)
+                {
+                    handler = existing;
+                }
+            }
+
+            return handler;
+        }
+
+        abstract H getPlugin(String pluginClassName);
+    }
+}
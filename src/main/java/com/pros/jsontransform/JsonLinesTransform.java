@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+/**
+ * Transform JSON Lines, one source JSON per line and one target JSON per line.
+ *
+ * A reader thread splits the lines, worker threads transform them and the calling
+ * thread writes the targets in source order. Stages are connected by bounded
+ * queues and at most queueCapacity lines are in progress, so memory does not
+ * depend on the number of lines. Lines that fail are counted, logged and skipped.
+ * An instance runs one transformation at a time, a concurrent call throws
+ * IllegalStateException. Use one instance per thread to run them in parallel.
+ */
+public class JsonLinesTransform
+{
+    private final ObjectTransformer transformer;
+    private final TransformPlan plan;
+    private final int workerCount;
+    private final int queueCapacity;
+    private final ObjectWriter writer;
+
+    /** Counters of the running or last transformation */
+    private final AtomicLong linesRead = new AtomicLong();
+    private final AtomicLong linesWritten = new AtomicLong();
+    private final AtomicLong linesFailed = new AtomicLong();
+    private volatile long startTime;
+
+    /** Queues of the running or last transformation, for monitoring only */
+    private volatile BlockingQueue<Line> sourceQueue;
+    private volatile BlockingQueue<Line> targetQueue;
+
+    /** A transformation is running */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /** Marks the end of the source lines */
+    private static final String END = new String();
+
+    public JsonLinesTransform(
+        final ObjectTransformer transformer,
+        final TransformPlan plan,
+        final int workerCount,
+        final int queueCapacity)
+    {
+        this.transformer = transformer;
+        this.plan = plan;
+        this.workerCount = workerCount;
+        this.queueCapacity = queueCapacity;
+        this.writer = transformer.mapper.writer();
+    }
+
+    public JsonLinesTransform(
+        final ObjectTransformer transformer,
+        final TransformPlan plan)
+    {
+        this(transformer, plan, Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    public void transform(
+        final File sourceFile,
+        final File targetFile)
+    throws IOException, InterruptedException
+    {
+        try (InputStream source = new FileInputStream(sourceFile);
+            OutputStream target = new FileOutputStream(targetFile))
+        {
+            transform(source, target);
+        }
+    }
+
+    /**
+     * Transform UTF-8 JSON Lines, the streams are not closed.
+     */
+    public void transform(
+        final InputStream source,
+        final OutputStream target)
+    throws IOException, InterruptedException
+    {
+        if (!running.compareAndSet(false, true))
+        {
+            throw new IllegalStateException("JsonLinesTransform is already running a transformation");
+        }
+
+        linesRead.set(0);
+        linesWritten.set(0);
+        linesFailed.set(0);
+        startTime = System.nanoTime();
+        BlockingQueue<Line> sourceLines = new ArrayBlockingQueue<Line>(queueCapacity);
+        BlockingQueue<Line> targetLines = new LinkedBlockingQueue<Line>();
+        sourceQueue = sourceLines;
+        targetQueue = targetLines;
+
+        // lines in progress, released when written
+        Semaphore inProgress = new Semaphore(queueCapacity);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount + 1);
+        try
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(source, StandardCharsets.UTF_8));
+            executor.execute(new LineReader(reader, inProgress, sourceLines, targetLines));
+            for (int i = 0; i < workerCount; i++)
+            {
+                executor.execute(new LineWorker(sourceLines, targetLines));
+            }
+
+            Writer output = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8));
+            writeLines(output, inProgress, targetLines);
+            output.flush();
+        }
+        finally
+        {
+            executor.shutdownNow();
+            sourceLines.clear();
+            targetLines.clear();
+            running.set(false);
+        }
+    }
+
+    public long getLinesRead()
+    {
+        return linesRead.get();
+    }
+
+    public long getLinesWritten()
+    {
+        return linesWritten.get();
+    }
+
+    public long getLinesFailed()
+    {
+        return linesFailed.get();
+    }
+
+    /** Lines read and waiting for a worker */
+    public int getSourceQueueDepth()
+    {
+        BlockingQueue<Line> queue = sourceQueue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /** Lines transformed and waiting for the writer */
+    public int getTargetQueueDepth()
+    {
+        BlockingQueue<Line> queue = targetQueue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /** Lines written per second since the start of the transformation */
+    public double getThroughput()
+    {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? (linesWritten.get() + linesFailed.get()) / seconds : 0;
+    }
+
+    private void writeLines(
+        final Writer output,
+        final Semaphore inProgress,
+        final BlockingQueue<Line> targetLines)
+    throws IOException, InterruptedException
+    {
+        // lines transformed ahead of the next line to write
+        Map<Long, Line> pendingLines = new HashMap<Long, Line>();
+        long nextNumber = 0;
+        long lineCount = -1;
+        while (lineCount < 0 || nextNumber < lineCount)
+        {
+            Line line = targetLines.take();
+            if (line.text == END)
+            {
+                // a failure of the reader or of a worker ends the transformation
+                if (line.exception instanceof Error)
+                {
+                    throw (Error)line.exception;
+                }
+                if (line.exception instanceof RuntimeException)
+                {
+                    throw (RuntimeException)line.exception;
+                }
+                if (line.exception != null)
+                {
+                    throw (IOException)line.exception;
+                }
+                lineCount = line.number;
+                continue;
+            }
+
+            pendingLines.put(line.number, line);
+            while ((line = pendingLines.remove(nextNumber)) != null)
+            {
+                if (line.text != null)
+                {
+                    output.write(line.text);
+                    output.write('\n');
+                    linesWritten.incrementAndGet();
+                }
+                nextNumber++;
+                inProgress.release();
+            }
+        }
+    }
+
+    /** A source or target line */
+    private static final class Line
+    {
+        final long number;
+        final String text;
+        final Throwable exception;
+
+        Line(final long number, final String text, final Throwable exception)
+        {
+            this.number = number;
+            this.text = text;
+            this.exception = exception;
+        }
+    }
+
+    private final class LineReader implements Runnable
+    {
+        private final BufferedReader reader;
+        private final Semaphore inProgress;
+        private final BlockingQueue<Line> sourceLines;
+        private final BlockingQueue<Line> targetLines;
+
+        LineReader(
+            final BufferedReader reader,
+            final Semaphore inProgress,
+            final BlockingQueue<Line> sourceLines,
+            final BlockingQueue<Line> targetLines)
+        {
+            this.reader = reader;
+            this.inProgress = inProgress;
+            this.sourceLines = sourceLines;
+            this.targetLines = targetLines;
+        }
+
+        @Override
+        public void run()
+        {
+            long number = 0;
+            Throwable exception = null;
+            boolean interrupted = false;
+            try
+            {
+                String text;
+                while ((text = reader.readLine()) != null)
+                {
+                    if (text.trim().isEmpty())
+                    {
+                        continue;
+                    }
+                    inProgress.acquire();
+                    sourceLines.put(new Line(number++, text, null));
+                    linesRead.incrementAndGet();
+                }
+            }
+            catch (IOException ioEx)
+            {
+                exception = ioEx;
+            }
+            catch (InterruptedException iEx)
+            {
+                interrupted = true;
+            }
+            catch (RuntimeException rEx)
+            {
+                exception = rEx;
+                throw rEx;
+            }
+            catch (Error err)
+            {
+                exception = err;
+                throw err;
+            }
+            finally
+            {
+                if (!interrupted)
+                {
+                    end(number, exception);
+                }
+            }
+        }
+
+        /**
+         * Tell workers and writer that all lines are read.
+         */
+        private void end(final long lineCount, final Throwable exception)
+        {
+            try
+            {
+                for (int i = 0; i < workerCount; i++)
+                {
+                    sourceLines.put(new Line(-1, END, null));
+                }
+                targetLines.put(new Line(lineCount, END, exception));
+            }
+            catch (InterruptedException iEx)
+            {
+                return;
+            }
+        }
+    }
+
+    private final class LineWorker implements Runnable
+    {
+        private final BlockingQueue<Line> sourceLines;
+        private final BlockingQueue<Line> targetLines;
+
+        LineWorker(
+            final BlockingQueue<Line> sourceLines,
+            final BlockingQueue<Line> targetLines)
+        {
+            this.sourceLines = sourceLines;
+            this.targetLines = targetLines;
+        }
+
+        @Override
+        public void run()
+        {
+            TransformContext context = new TransformContext(transformer, MissingNode.getInstance());
+            try
+            {
+                Line line;
+                while ((line = sourceLines.take()).text != END)
+                {
+                    String targetText = null;
+                    Throwable failure = null;
+                    try
+                    {
+                        targetText = writer.writeValueAsString(
+                            transformer.transform(transformer.mapper.readTree(line.text), plan, context));
+                    }
+                    catch (Exception ex)
+                    {
+                        linesFailed.incrementAndGet();
+                        transformer.getLogger().warn("Cannot transform JSON line record " + (line.number + 1), ex);
+                    }
+                    catch (Error err)
+                    {
+                        failure = err;
+                        throw err;
+                    }
+                    finally
+                    {
+                        // the writer waits for every line, an error ends the transformation instead
+                        targetLines.put(failure == null
+                            ? new Line(line.number, targetText, null)
+                            : new Line(line.number, END, failure));
+                    }
+                }
+            }
+            catch (InterruptedException iEx)
+            {
+                return;
+            }
+        }
+    }
+}
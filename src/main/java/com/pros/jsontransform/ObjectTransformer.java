@@ -16,23 +16,50 @@
 
 package com.pros.jsontransform;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.pros.jsontransform.constraint.Constraint;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.pros.jsontransform.TransformPlan.ArrayStep;
+import com.pros.jsontransform.TransformPlan.ConstraintStep;
+import com.pros.jsontransform.TransformPlan.ExpressionStep;
+import com.pros.jsontransform.TransformPlan.FilterStep;
+import com.pros.jsontransform.TransformPlan.Kind;
+import com.pros.jsontransform.TransformPlan.ObjectStep;
+import com.pros.jsontransform.TransformPlan.Step;
+import com.pros.jsontransform.TransformPlan.StructureStep;
+import com.pros.jsontransform.TransformPlan.ValueStep;
+import com.pros.jsontransform.constraint.ConstraintHandler;
+import com.pros.jsontransform.constraint.ConstraintViolationException;
 import com.pros.jsontransform.expression.Function;
-import com.pros.jsontransform.filter.ArrayFilter;
+import com.pros.jsontransform.expression.FunctionHandler;
+import com.pros.jsontransform.expression.TextFunction;
 import com.pros.jsontransform.plugin.PluginManager;
 import com.pros.jsontransform.sort.ArraySort;
 
@@ -40,7 +67,7 @@ import com.pros.jsontransform.sort.ArraySort;
  * Transform a source JSON tree into a target JSON tree.
  * It uses Jackson for JSON manipulations.
  */
-public class ObjectTransformer
+public class ObjectTransformer implements AutoCloseable
 {
     /** Names of reserved transform directives */
     static final String COMMENT = "$comment";
@@ -58,42 +85,65 @@ public class ObjectTransformer
     static final String PATH_SEPARATOR = "|";
     static final String PATH_DOT = ".";
     static final String SORT = "$sort";
+    static final String PARALLEL = "$parallel";
+    static final String OFFSET = "$offset";
+    static final String LIMIT = "$limit";
+    static final String GROUP_BY = "$groupBy";
+    static final String GROUP_KEY = "$key";
+    static final String GROUP_ELEMENTS = "$group";
+    static final String SPILL = "$spill";
+
+    /** Minimum size of source arrays transformed in parallel with "$parallel":true */
+    static final int PARALLEL_THRESHOLD_DEFAULT = 1000;
+
+    /** Minimum number of target elements buffered by a sorted $limit */
+    static final int LIMIT_BUFFER_MIN = 1024;
 
     /** Configuration properties */
     public Properties properties;
 
-    /** The root node of the source JSON */
-    JsonNode sourceRoot;
+    /** The Jackson object mapper */
+    public ObjectMapper mapper;
 
-    /** The root node of the transform JSON */
-    JsonNode transformRoot;
+    /** Writer of the target JSON to streams, compact unless output.pretty.print is set */
+    private final ObjectWriter writer;
 
-    /** The root node of the target JSON */
-    ObjectNode targetRoot;
+    /** Writer of the target JSON to strings */
+    private final ObjectWriter prettyWriter;
 
-    /** The processed node of the source JSON */
-    JsonNode sourceNode;
+    /** Maps passed as JSON strings, compiled once, null if transform.map.cache.size is 0 */
+    private final TransformMapRegistry transformMaps;
 
-    /** The processed node of the transform JSON */
-    JsonNode transformNode;
+    /** Minimum size of source arrays transformed in parallel, 0 if disabled */
+    private final int parallelArrayThreshold;
 
-    /** The name of the transform node field being traversed */
-    String transformNodeFieldName;
+    /** Number of grouped elements held in memory by a streamed $groupBy, 0 if never spilled */
+    final int groupSpillThreshold;
 
-    /** The path to the source node computed by $path */
-    String sourceNodePath;
+    /** Folder of the spill files of $groupBy, null for the temporary folder */
+    final File groupSpillFolder;
 
-    /** Keep track of node parents in the source tree */
-    List<JsonNode> sourceNodeParents;
+    /** Where plugins are located */
+    private final String pluginFolder;
 
-    /** Keep track of the index to visited elements in arrays in the source tree */
-    List<Integer> sourceArrayIndexes;
+    /** Call warmUp on typed plugins when they are registered */
+    private final boolean pluginWarmUp;
 
-    /** The Jackson object mapper */
-    public ObjectMapper mapper;
+    /** Handlers of functions, filters, constraints and sorts of the current plugin version */
+    private final AtomicReference<HandlerRegistry> handlers = new AtomicReference<HandlerRegistry>();
+
+    /** Reloads plugins when the plugin folder changes, null unless plugin.reload is set */
+    private final PluginWatcher pluginWatcher;
 
-    /** Plugin manager */
-    private PluginManager pluginManager;
+    /** Set once close is called */
+    private boolean closed;
+
+    /** Paths parsed from $value directives not compiled in a plan */
+    private final ConcurrentHashMap<String, PathExpression> pathExpressions =
+        new ConcurrentHashMap<String, PathExpression>();
+
+    /** Maximum number of cached path expressions */
+    private static final int PATH_EXPRESSIONS_MAX = 4096;
 
     /** Log tool */
     private static final Logger logger = Logger.getLogger(ObjectTransformer.class);
@@ -104,12 +154,52 @@ public class ObjectTransformer
     {
         this.properties = properties;
         this.mapper = jacksonMapper;
-        this.pluginManager = new PluginManager(properties.getProperty("plugin.folder", "."));
+        this.pluginFolder = properties.getProperty("plugin.folder", ".");
+        this.pluginWarmUp = Boolean.valueOf(ObjectTransformerProperty.getProperty(
+            properties, ObjectTransformerProperty.PLUGIN_WARM_UP));
+        this.handlers.set(new HandlerRegistry(new PluginManager(pluginFolder), pluginWarmUp, 1));
+
+        int transformMapCacheSize = Integer.parseInt(ObjectTransformerProperty.getProperty(
+            properties, ObjectTransformerProperty.TRANSFORM_MAP_CACHE_SIZE));
+        this.transformMaps = transformMapCacheSize > 0
+            ? new TransformMapRegistry(jacksonMapper, transformMapCacheSize) : null;
+
+        this.parallelArrayThreshold = Integer.parseInt(ObjectTransformerProperty.getProperty(
+            properties, ObjectTransformerProperty.PARALLEL_ARRAY_THRESHOLD));
+        this.groupSpillThreshold = Integer.parseInt(ObjectTransformerProperty.getProperty(
+            properties, ObjectTransformerProperty.GROUP_SPILL_THRESHOLD));
+        String groupSpillFolder = ObjectTransformerProperty.getProperty(
+            properties, ObjectTransformerProperty.GROUP_SPILL_FOLDER);
+        this.groupSpillFolder = groupSpillFolder.isEmpty() ? null : new File(groupSpillFolder);
+
+        // writers are immutable and reused by all transformations
+        this.prettyWriter = jacksonMapper.writerWithDefaultPrettyPrinter();
+        this.writer = (Boolean.valueOf(ObjectTransformerProperty.getProperty(
+            properties, ObjectTransformerProperty.OUTPUT_PRETTY_PRINT)) ? prettyWriter : jacksonMapper.writer())
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 
         if (logger.getLevel() == null)
         {
             logger.setLevel(logger.getParent().getLevel());
         }
+
+        if (Boolean.valueOf(ObjectTransformerProperty.getProperty(
+            properties, ObjectTransformerProperty.PLUGIN_RELOAD)))
+        {
+            try
+            {
+                this.pluginWatcher = new PluginWatcher(this, Paths.get(pluginFolder));
+            }
+            catch (IOException ex)
+            {
+                throw new IllegalArgumentException("Cannot watch plugin folder " + pluginFolder, ex);
+            }
+            pluginWatcher.start();
+        }
+        else
+        {
+            this.pluginWatcher = null;
+        }
     }
 
     public ObjectTransformer(
@@ -123,84 +213,300 @@ public class ObjectTransformer
         return logger;
     }
 
+    /**
+     * The methods below serve plugin methods taking an ObjectTransformer, they read
+     * the context of the running plugin call.
+     *
+     * @deprecated use TransformContext.getSourceArrayIndexes()
+     */
+    @Deprecated
     public List<Integer> getSourceArrayIndexes()
     {
-        return sourceArrayIndexes;
+        return PluginManager.getLegacyContext().getSourceArrayIndexes();
     }
 
+    /**
+     * @deprecated use TransformContext.getIndexOfSourceArray()
+     */
+    @Deprecated
     public int getIndexOfSourceArray()
     {
-        return sourceArrayIndexes.get(sourceArrayIndexes.size() - 1);
+        return PluginManager.getLegacyContext().getIndexOfSourceArray();
     }
 
+    /**
+     * @deprecated use TransformContext.getParentNode()
+     */
+    @Deprecated
     public JsonNode getParentNode()
     {
-        return sourceNodeParents.get(sourceNodeParents.size() - 1);
+        return PluginManager.getLegacyContext().getParentNode();
     }
 
+    /**
+     * @deprecated use TransformContext.getSourceNode()
+     */
+    @Deprecated
     public JsonNode getSourceNode()
     {
-        return sourceNode;
+        return PluginManager.getLegacyContext().getSourceNode();
     }
 
+    /**
+     * @deprecated use TransformContext.getTransformNodeFieldName()
+     */
+    @Deprecated
     public String getTransformNodeFieldName()
     {
-        return transformNodeFieldName;
+        return PluginManager.getLegacyContext().getTransformNodeFieldName();
     }
 
+    /**
+     * @deprecated use TransformContext.transformValueNode(JsonNode, JsonNode)
+     */
+    @Deprecated
     public JsonNode transformValueNode(
         final JsonNode sourceNode,
         final JsonNode transformNode)
     throws ObjectTransformerException
     {
-        JsonNode resultNode = sourceNode;
+        return transformValueNode(sourceNode, transformNode, PluginManager.getLegacyContext());
+    }
+
+    /**
+     * @deprecated use TransformContext.transformExpression(JsonNode, JsonNode)
+     */
+    @Deprecated
+    public JsonNode transformExpression(
+        final JsonNode sourceNode,
+        final JsonNode transformNode)
+    throws ObjectTransformerException
+    {
+        return transformExpression(sourceNode, transformNode, PluginManager.getLegacyContext());
+    }
+
+    /**
+     * Load the plugins of the plugin folder again.
+     *
+     * New transformations use the new plugins, transformations already running
+     * keep the plugins they started with. The class loader of the previous plugins
+     * is closed when the last of them ends.
+     */
+    public synchronized void reloadPlugins()
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("ObjectTransformer is closed");
+        }
+
+        HandlerRegistry current = handlers.get();
+        HandlerRegistry reloaded = new HandlerRegistry(
+            new PluginManager(pluginFolder), pluginWarmUp, current.version + 1);
+        handlers.set(reloaded);
+        current.release();
+
+        logger.info("Loaded plugin version " + reloaded.version + " from folder " + pluginFolder);
+    }
+
+    /**
+     * The version of the plugins used by new transformations, incremented on each reload.
+     */
+    public long getPluginVersion()
+    {
+        return handlers.get().version;
+    }
+
+    /**
+     * Stop watching the plugin folder and close the plugin class loader
+     * once running transformations end.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+
+        if (pluginWatcher != null)
+        {
+            pluginWatcher.stop();
+        }
+        handlers.get().release();
+    }
+
+    /**
+     * Get the handlers of the current plugin version, they stay usable until released.
+     */
+    HandlerRegistry acquireHandlers()
+    {
+        while (true)
+        {
+            HandlerRegistry current = handlers.get();
+            if (current.retain())
+            {
+                return current;
+            }
+            if (handlers.get() == current)
+            {
+                throw new IllegalStateException("ObjectTransformer is closed");
+            }
+            // released by a reload in between, get the new version
+        }
+    }
 
+    /**
+     * Get the handlers of the current plugin version without holding them.
+     */
+    HandlerRegistry getHandlers()
+    {
+        return handlers.get();
+    }
+
+    /**
+     * Get the parsed form of a path found in the transform map.
+     */
+    PathExpression getPathExpression(final String pathText)
+    {
+        PathExpression pathExpression = pathExpressions.get(pathText);
+        if (pathExpression == null)
+        {
+            if (pathExpressions.size() >= PATH_EXPRESSIONS_MAX)
+            {
+                pathExpressions.clear();
+            }
+            pathExpression = PathExpression.compile(pathText);
+            pathExpressions.put(pathText, pathExpression);
+        }
+
+        return pathExpression;
+    }
+
+    public JsonNode transformValueNode(
+        final JsonNode sourceNode,
+        final JsonNode transformNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
         // use $value to determine transformed value
-        JsonNode valuePath = transformNode.get(VALUE);
-        if (valuePath != null)
+        PathExpression valuePath = null;
+        JsonNode valuePathNode = transformNode.get(VALUE);
+        if (valuePathNode != null)
         {
-            String valuePathAsString = valuePath.asText();
+            String valuePathAsString = valuePathNode.asText();
             if (!valuePathAsString.equalsIgnoreCase(PATH_DOT))
             {
-                // $value contains a path to a source node
-                resultNode = updateSourceFromPath(sourceNode, valuePath);
-                restoreSourceFromPath(sourceNode, valuePath);
+                valuePath = getPathExpression(valuePathAsString);
             }
         }
 
+        return transformValueNode(sourceNode, valuePath, context);
+    }
+
+    public JsonNode transformExpression(
+        final JsonNode sourceNode,
+        final JsonNode transformNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        JsonNode resultNode = transformValueNode(sourceNode, transformNode, context);
+        return evaluateExpression(resultNode, transformNode.path(EXPRESSION), transformNode, context);
+    }
+
+    private JsonNode transformValueNode(
+        final JsonNode sourceNode,
+        final PathExpression valuePath,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        JsonNode resultNode = sourceNode;
+        if (valuePath != null)
+        {
+            // $value contains a path to a source node
+            resultNode = updateSourceFromPath(sourceNode, valuePath, context);
+            restoreSourceFromPath(sourceNode, valuePath, context);
+        }
+
         return resultNode;
     }
 
-    public JsonNode transformExpression(final JsonNode sourceNode, final JsonNode transformNode)
+    private JsonNode evaluateExpression(
+        final JsonNode valueNode,
+        final JsonNode expressionNode,
+        final JsonNode transformNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        JsonNode resultNode = evaluateFunctions(valueNode, expressionNode, context);
+
+        // validate node constraints
+        validateNode(resultNode, transformNode, context);
+
+        return resultNode;
+    }
+
+    private JsonNode evaluateFunctions(
+        final JsonNode valueNode,
+        final JsonNode expressionNode,
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        JsonNode resultNode = transformValueNode(sourceNode, transformNode);
-        JsonNode expressionNode = transformNode.path(EXPRESSION);
+        JsonNode resultNode = valueNode;
         if (expressionNode.isArray())
         {
+            // text of consecutive text functions, e.g. $append then $replace
+            StringBuilder text = null;
             for (JsonNode functionNode : expressionNode)
             {
                 // the first field name identifies the function name
                 // e.g. {"$replace":{"$what":"Chr", "$with":"Lou"}}
+                // function name may also be a Java class that identifies a function plugin
                 String functionName = functionNode.fieldNames().next();
                 JsonNode arguments = functionNode.get(functionName);
-                try
+                FunctionHandler function = context.handlers.getFunction(functionName);
+                TextFunction textFunction = function instanceof Function ? ((Function)function).textFunction() : null;
+                if (textFunction != null)
                 {
-                    Function function = Function.valueOf(functionName.toUpperCase());
-                    resultNode = function.evaluate(arguments, resultNode, this);
+                    if (text == null)
+                    {
+                        text = new StringBuilder(resultNode == null ? "" : resultNode.asText());
+                    }
+                    textFunction.evaluate(arguments, text, context);
+                    continue;
                 }
-                catch (IllegalArgumentException iaEx)
+
+                if (text != null)
                 {
-                    // function name may be a Java class that identifies a function plugin
-                    String pluginClassName = functionName.replaceFirst("\\$", "");
-                    resultNode = pluginManager.functionPluginEvaluate(
-                        pluginClassName, arguments, resultNode, this);
+                    resultNode = TextNode.valueOf(text.toString());
+                    text = null;
                 }
+                resultNode = function.evaluate(arguments, resultNode, context);
+            }
+
+            if (text != null)
+            {
+                resultNode = TextNode.valueOf(text.toString());
             }
         }
 
-        // validate node constraints
-        validateNode(resultNode, transformNode);
+        return resultNode;
+    }
+
+    JsonNode transformExpression(
+        final JsonNode sourceNode,
+        final ExpressionStep expressionStep,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        JsonNode resultNode = transformValueNode(sourceNode, expressionStep.valuePath, context);
+        resultNode = evaluateFunctions(resultNode, expressionStep.transformNode.path(EXPRESSION), context);
+
+        // constraints are compiled with the plan
+        if (expressionStep.constraints != null)
+        {
+            validateConstraints(expressionStep.constraints, resultNode, context);
+        }
 
         return resultNode;
     }
@@ -211,11 +517,71 @@ public class ObjectTransformer
     throws ObjectTransformerException, JsonProcessingException, IOException
     {
         // TODO in case of parse error cannot see which JSON fails
-        sourceRoot = mapper.readTree(sourceJson);
-        transformRoot = mapper.readTree(transformJson);
+        JsonNode sourceRoot = mapper.readTree(sourceJson);
+        TransformPlan plan = transformMaps != null
+            ? transformMaps.getOrCompile(transformJson)
+            : TransformPlan.compile(mapper.readTree(transformJson));
+
+        return prettyWriter.writeValueAsString(transform(sourceRoot, plan));
+    }
+
+    /**
+     * The compiled maps of transform(String, String), null if the cache is disabled.
+     */
+    public TransformMapRegistry getTransformMapRegistry()
+    {
+        return transformMaps;
+    }
+
+    /**
+     * Transform a source JSON stream and write the target JSON to an output stream.
+     * The output stream is not closed.
+     */
+    public void transform(
+        final InputStream sourceJson,
+        final JsonNode transformRoot,
+        final OutputStream targetJson)
+    throws ObjectTransformerException, JsonProcessingException, IOException
+    {
+        writer.writeValue(targetJson, transform(mapper.readTree(sourceJson), transformRoot));
+    }
+
+    /**
+     * Transform a source JSON held in bytes and write the target JSON to an output stream.
+     * The output stream is not closed.
+     */
+    public void transform(
+        final byte[] sourceJson,
+        final JsonNode transformRoot,
+        final OutputStream targetJson)
+    throws ObjectTransformerException, JsonProcessingException, IOException
+    {
+        writer.writeValue(targetJson, transform(mapper.readTree(sourceJson), transformRoot));
+    }
 
-        return mapper.writerWithDefaultPrettyPrinter()
-            .writeValueAsString(transform(sourceRoot, transformRoot));
+    /**
+     * Transform a source JSON read from a reader and write the target JSON to a writer.
+     * The writer is not closed.
+     */
+    public void transform(
+        final Reader sourceJson,
+        final JsonNode transformRoot,
+        final Writer targetJson)
+    throws ObjectTransformerException, JsonProcessingException, IOException
+    {
+        writer.writeValue(targetJson, transform(mapper.readTree(sourceJson), transformRoot));
+    }
+
+    /**
+     * Transform a source JSON tree and write the target JSON to a generator.
+     */
+    public void transform(
+        final JsonNode sourceRoot,
+        final JsonNode transformRoot,
+        final JsonGenerator targetGenerator)
+    throws ObjectTransformerException, JsonProcessingException, IOException
+    {
+        writer.writeValue(targetGenerator, transform(sourceRoot, transformRoot));
     }
 
     public JsonNode transform(
@@ -223,37 +589,191 @@ public class ObjectTransformer
         final JsonNode transformRoot)
     throws ObjectTransformerException, JsonProcessingException, IOException
     {
-        targetRoot = mapper.createObjectNode();
+        return transform(sourceRoot, TransformPlan.compile(transformRoot));
+    }
 
-        transformNodeFieldName = "";
-        sourceNodePath = "";
-        sourceNodeParents = new ArrayList<JsonNode>();
-        sourceArrayIndexes = new ArrayList<Integer>();
+    public JsonNode transform(
+        final JsonNode sourceRoot,
+        final TransformPlan plan)
+    throws ObjectTransformerException
+    {
+        // all state of the transformation is kept in its context
+        TransformContext context = new TransformContext(this, sourceRoot);
 
-        // always have root as parent
-        sourceNodeParents.add(sourceRoot);
+        return transformRoot(sourceRoot, plan, context);
+    }
+
+    /**
+     * Transform a source JSON tree without stopping at constraint violations,
+     * the violations are added to the report and the target gets the invalid values.
+     */
+    public JsonNode transform(
+        final JsonNode sourceRoot,
+        final TransformPlan plan,
+        final ValidationReport report)
+    throws ObjectTransformerException
+    {
+        TransformContext context = new TransformContext(this, sourceRoot);
+        context.validationReport = report;
 
-        // start from root
-        transformNode(sourceRoot, transformRoot, targetRoot);
+        return transformRoot(sourceRoot, plan, context);
+    }
+
+    /**
+     * Check a source JSON tree against the $constraints of a transform map without
+     * building the target, see validate(JsonNode, TransformPlan, ValidationReport).
+     */
+    public ValidationReport validate(
+        final JsonNode sourceRoot,
+        final JsonNode transformRoot)
+    throws ObjectTransformerException
+    {
+        ValidationReport report = new ValidationReport();
+        validate(sourceRoot, TransformPlan.compile(transformRoot), report);
 
-        return targetRoot;
+        return report;
+    }
+
+    /**
+     * Check a source JSON tree against the $constraints of a plan, the violations are added to the report.
+     * Only the steps with constraints are visited and no target node is created, expressions
+     * are evaluated only for the values that have constraints.
+     */
+    public void validate(
+        final JsonNode sourceRoot,
+        final TransformPlan plan,
+        final ValidationReport report)
+    throws ObjectTransformerException
+    {
+        TransformContext context = new TransformContext(this, sourceRoot);
+        context.validationReport = report;
+
+        // plugins of this version stay loaded until the validation ends
+        context.handlers = acquireHandlers();
+        try
+        {
+            new PlanValidation(this, context).validate(plan);
+        }
+        finally
+        {
+            context.handlers.release();
+        }
+    }
+
+    /**
+     * Transform a source JSON tree reusing a context of the calling thread.
+     */
+    JsonNode transform(
+        final JsonNode sourceRoot,
+        final TransformPlan plan,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        context.reset(sourceRoot);
+
+        return transformRoot(sourceRoot, plan, context);
+    }
+
+    private JsonNode transformRoot(
+        final JsonNode sourceRoot,
+        final TransformPlan plan,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        // plugins of this version stay loaded until the transformation ends
+        context.handlers = acquireHandlers();
+        try
+        {
+            // start from root
+            transformNode(sourceRoot, plan.getRoot(), context.targetRoot, context);
+        }
+        finally
+        {
+            context.handlers.release();
+        }
+
+        return context.targetRoot;
+    }
+
+    /**
+     * Transform many source JSON trees with one transform map.
+     * The map is compiled once and each source gets a result in order, a failed
+     * source is reported in its result and does not stop the batch.
+     */
+    public List<TransformResult> transformBatch(
+        final Iterable<JsonNode> sourceRoots,
+        final JsonNode transformRoot)
+    throws ObjectTransformerException
+    {
+        return transformBatch(sourceRoots.iterator(), TransformPlan.compile(transformRoot));
+    }
+
+    /**
+     * Transform source JSON trees with one plan in the calling thread, see transformBatch(Iterable, JsonNode).
+     */
+    public List<TransformResult> transformBatch(
+        final Iterator<JsonNode> sourceRoots,
+        final TransformPlan plan)
+    {
+        return new BatchTransform(this, plan).transform(sourceRoots);
+    }
+
+    /**
+     * Transform source JSON trees with one plan using the threads of an executor,
+     * see transformBatch(Iterable, JsonNode).
+     */
+    public List<TransformResult> transformBatch(
+        final Iterator<JsonNode> sourceRoots,
+        final TransformPlan plan,
+        final ExecutorService executor)
+    throws InterruptedException
+    {
+        return new BatchTransform(this, plan).transform(sourceRoots, executor);
+    }
+
+    /**
+     * Transform a stream of source JSON trees with one plan using the threads of an executor,
+     * see transformBatch(Iterable, JsonNode).
+     */
+    public List<TransformResult> transformBatch(
+        final Stream<JsonNode> sourceRoots,
+        final TransformPlan plan,
+        final ExecutorService executor)
+    throws InterruptedException
+    {
+        return transformBatch(sourceRoots.iterator(), plan, executor);
+    }
+
+    /**
+     * Transform a source JSON read from a parser and write the target JSON to a generator.
+     * The source is read forward only, so memory depends on the fields used by the map
+     * and not on the size of the source. The plan must pass TransformPlan.checkStreamable.
+     */
+    public void transformStream(
+        final JsonParser sourceParser,
+        final TransformPlan plan,
+        final JsonGenerator targetGenerator)
+    throws ObjectTransformerException, IOException
+    {
+        new StreamingTransform(this, sourceParser, targetGenerator).transform(plan);
     }
 
     private void transformNode(
         final JsonNode sourceNode,
-        final JsonNode transformNode,
-        final ObjectNode targetNode)
+        final ObjectStep objectStep,
+        final ObjectNode targetNode,
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        this.sourceNode = sourceNode;
-        this.transformNode = transformNode;
+        context.sourceNode = sourceNode;
+        context.transformNode = objectStep.transformNode;
 
         if (logger.getLevel() == Level.DEBUG)
         {
-            logger.debug("transform " + transformNode.toString());
+            logger.debug("transform " + objectStep.transformNode.toString());
             logger.debug("source " + sourceNode.toString());
-            logger.debug("source path " + this.sourceNodePath);
-            for (JsonNode parent : sourceNodeParents)
+            logger.debug("source path " + context.sourceNodePath);
+            for (JsonNode parent : context.sourceNodeParents)
             {
                 int trunc = parent.toString().length() > 100 ? 100 : parent.toString().length();
                 logger.debug("parent " + parent.toString().substring(0, trunc));
@@ -261,232 +781,395 @@ public class ObjectTransformer
         }
 
         // process $path directive
-        JsonNode newSourceNode = updateSourceFromPath(sourceNode, transformNode.get(PATH));
+        JsonNode newSourceNode = updateSourceFromPath(sourceNode, objectStep.path, context);
+
+        transformFields(newSourceNode, objectStep, targetNode, context);
+
+        // restore path
+        restoreSourceFromPath(sourceNode, objectStep.path, context);
+    }
 
-        Iterator<String> fieldNames = transformNode.fieldNames();
-        while (fieldNames.hasNext())
+    /**
+     * Map the fields of an object step, the source context is already moved by $path.
+     */
+    void transformFields(
+        final JsonNode sourceNode,
+        final ObjectStep objectStep,
+        final ObjectNode targetNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        for (Step step : objectStep.children)
         {
-            transformNodeFieldName = fieldNames.next();
-            if (transformNodeFieldName.equalsIgnoreCase(COMMENT))
-            {
-                // ignore $comment nodes
-                continue;
-            }
+            context.transformNodeFieldName = step.fieldName;
+            transformStep(sourceNode, step, targetNode, context);
+        }
+    }
 
-            JsonNode transformChildNode = transformNode.get(transformNodeFieldName);
-            if (transformChildNode.get(VALUE) != null || transformChildNode.get(EXPRESSION) != null)
-            {
-                // mapping value from transform map
+    /**
+     * Map one field of an object step into the target node.
+     */
+    void transformStep(
+        final JsonNode sourceNode,
+        final Step step,
+        final ObjectNode targetNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        switch (step.kind())
+        {
+            case VALUE:
                 targetNode.put(
-                    transformNodeFieldName,
-                    transformExpression(newSourceNode, transformChildNode));
-            }
-            else if (transformChildNode.get(STRUCTURE) != null)
-            {
-                transformStructure(newSourceNode, transformChildNode, targetNode);
-            }
-            else if (transformChildNode.isObject())
-            {
-                transformObject(newSourceNode, transformChildNode, targetNode);
-            }
-            else if (transformChildNode.isArray())
-            {
-                transformArray(newSourceNode, transformChildNode, targetNode);
-            }
-            else if (!transformNodeFieldName.startsWith("$"))
-            {
+                    context.transformNodeFieldName,
+                    transformValueNode(sourceNode, ((ValueStep)step).valuePath, context));
+                break;
+            case EXPRESSION:
+                targetNode.put(
+                    context.transformNodeFieldName,
+                    transformExpression(sourceNode, (ExpressionStep)step, context));
+                break;
+            case STRUCTURE:
+                transformStructure(sourceNode, (StructureStep)step, targetNode, context);
+                break;
+            case OBJECT:
+                transformObject(sourceNode, (ObjectStep)step, targetNode, context);
+                break;
+            case ARRAY:
+                transformArray(sourceNode, (ArrayStep)step, targetNode, context);
+                break;
+            case LITERAL:
                 // simple JSON field, copy from transform map
-                targetNode.put(transformNodeFieldName, transformChildNode);
-            }
+                targetNode.put(context.transformNodeFieldName, step.transformNode);
+                break;
         }
-
-        // restore path
-        restoreSourceFromPath(sourceNode, transformNode.get(PATH));
     }
 
     private void transformObject(
         final JsonNode sourceNode,
-        final JsonNode transformNode,
-        final ObjectNode targetNode)
+        final ObjectStep objectStep,
+        final ObjectNode targetNode,
+        final TransformContext context)
     throws ObjectTransformerException
     {
         ObjectNode childNode = mapper.createObjectNode();
-        targetNode.replace(transformNodeFieldName, childNode);
+        targetNode.replace(context.transformNodeFieldName, childNode);
 
         // visit child object
-        transformNode(sourceNode, transformNode, childNode);
+        transformNode(sourceNode, objectStep, childNode, context);
     }
 
     private void transformStructure(
         final JsonNode sourceNode,
-        final JsonNode transformNode,
-        final ObjectNode targetNode)
+        final StructureStep structureStep,
+        final ObjectNode targetNode,
+        final TransformContext context)
     throws ObjectTransformerException
     {
         // process $path directive
-        JsonNode newSourceNode = updateSourceFromPath(sourceNode, transformNode.get(PATH));
+        JsonNode newSourceNode = updateSourceFromPath(sourceNode, structureStep.path, context);
 
-        JsonNode structureNode = transformNode.get(STRUCTURE);
-        if (structureNode.isObject())
+        Step structure = structureStep.structure;
+        if (structure != null && structure.kind() == Kind.OBJECT)
         {
             // mapping an object
-            ObjectNode childNode =
-                (ObjectNode)targetNode.get(transformNode.path(APPEND).asText());
+            ObjectNode childNode = (ObjectNode)targetNode.get(structureStep.append);
             if (childNode == null)
             {
                 // no $append directive found, need new object
                 childNode = mapper.createObjectNode();
-                targetNode.replace(transformNodeFieldName, childNode);
+                targetNode.replace(context.transformNodeFieldName, childNode);
             }
 
             // visit child object
-            transformNode(newSourceNode, structureNode, childNode);
+            transformNode(newSourceNode, (ObjectStep)structure, childNode, context);
         }
-        else if (structureNode.isArray())
+        else if (structure != null && structure.kind() == Kind.ARRAY)
         {
             // mapping an array
-            ArrayNode childNode =
-                (ArrayNode)targetNode.get(transformNode.path(APPEND).asText());
+            ArrayNode childNode = (ArrayNode)targetNode.get(structureStep.append);
             if (childNode == null)
             {
                 // no $append directive found, need new object
                 childNode = mapper.createArrayNode();
-                targetNode.replace(transformNodeFieldName, childNode);
+                targetNode.replace(context.transformNodeFieldName, childNode);
             }
 
-            processArray(newSourceNode, transformNode, childNode);
+            processArray(newSourceNode, (ArrayStep)structure, childNode, context);
         }
 
         // restore path
-        restoreSourceFromPath(sourceNode, transformNode.get(PATH));
+        restoreSourceFromPath(sourceNode, structureStep.path, context);
     }
 
     private void transformArray(
         final JsonNode sourceNode,
-        final JsonNode transformNode,
-        final ObjectNode targetNode)
+        final ArrayStep arrayStep,
+        final ObjectNode targetNode,
+        final TransformContext context)
     throws ObjectTransformerException
     {
         // create new array
         ArrayNode targetArray = mapper.createArrayNode();
-        targetNode.replace(transformNodeFieldName, targetArray);
+        targetNode.replace(context.transformNodeFieldName, targetArray);
 
-        processArray(sourceNode, transformNode, targetArray);
+        processArray(sourceNode, arrayStep, targetArray, context);
     }
 
-    private void processArray(
+    void processArray(
         final JsonNode sourceNode,
-        final JsonNode transformNode,
-        final ArrayNode targetArray)
+        final ArrayStep arrayStep,
+        final ArrayNode targetArray,
+        final TransformContext context)
     throws ObjectTransformerException
     {
         // add array index
-        sourceArrayIndexes.add(new Integer(-1));
-        int lastIndex = sourceArrayIndexes.size() - 1;
+        context.sourceArrayIndexes.add(new Integer(-1));
+        int lastIndex = context.sourceArrayIndexes.size() - 1;
 
-        // use $structure if any
-        JsonNode transformArray = transformNode.get(STRUCTURE);
-        if (transformArray == null)
+        if (sourceNode.isArray())
         {
-            transformArray = transformNode;
+            // $groupBy maps one target element from each group of source elements
+            JsonNode elementsNode = arrayStep.groupKeys != null
+                ? groupArray(sourceNode, arrayStep, context) : sourceNode;
+
+            // $sort with $limit runs in sequence, its rolling sort and cut keeps only
+            // a buffer of target elements where chunks would hold all of them
+            int parallelThreshold = arrayStep.parallelThreshold < 0
+                ? parallelArrayThreshold : arrayStep.parallelThreshold;
+            boolean sortedLimit = arrayStep.sortNode != null && arrayStep.getKeep() >= 0;
+            if (parallelThreshold > 0 && elementsNode.size() >= parallelThreshold && !sortedLimit)
+            {
+                processArrayParallel(elementsNode, arrayStep, targetArray, context);
+            }
+            else
+            {
+                processArraySequential(elementsNode, arrayStep, targetArray, context);
+            }
+
+            // restore sourceNode to array node
+            context.sourceNode = sourceNode;
+
+            // sort directive, then keep the elements between $offset and $limit
+            if (arrayStep.sortNode != null)
+            {
+                sortArray(targetArray, arrayStep.sortNode, context);
+                limitArray(targetArray, arrayStep.offset, arrayStep.limit);
+            }
+        }
+        else
+        {
+            // process each element of transform array
+            for (Step childElement : arrayStep.elements)
+            {
+                targetArray.add(transformElement(sourceNode, childElement, context));
+            }
         }
 
-        if (sourceNode.isArray())
+        // remove array index
+        context.sourceArrayIndexes.remove(lastIndex);
+    }
+
+    private void processArraySequential(
+        final JsonNode sourceNode,
+        final ArrayStep arrayStep,
+        final ArrayNode targetArray,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        // target array is based on source array
+        int lastIndex = context.sourceArrayIndexes.size() - 1;
+        int sourceNodePathLength = context.sourceNodePath.length();
+        Step transformElement = arrayStep.elementModel;
+
+        // without $sort the elements before $offset are skipped and the loop stops at $limit,
+        // with $sort only the first $offset + $limit elements of a buffer survive each sort
+        boolean sorted = arrayStep.sortNode != null;
+        int keep = arrayStep.getKeep();
+        int bufferSize = (int)Math.min(Math.max(keep * 2L, LIMIT_BUFFER_MIN), Integer.MAX_VALUE);
+        int stop = sorted && keep != 0 ? -1 : keep;
+        boolean grouped = arrayStep.groupKeys != null;
+        for (JsonNode sourceArrayNode : sourceNode)
         {
-            // target array is based on source array
-            int count = 0;
-            JsonNode transformElement = transformArray.path(0);
-            for (JsonNode sourceArrayNode : sourceNode)
+            if (stop >= 0 && context.sourceArrayIndexes.get(lastIndex) + 1 >= stop)
+            {
+                break;
+            }
+            if (grouped || includeArrayNode(sourceArrayNode, arrayStep, context))
             {
-                if (includeArrayNode(sourceArrayNode, transformNode))
+                // increment array index to point to new node
+                int index = context.sourceArrayIndexes.get(lastIndex) + 1;
+                context.sourceArrayIndexes.set(lastIndex, index);
+                if (!sorted && index < arrayStep.offset)
                 {
-                    // increment array index to point to new node
-                    sourceArrayIndexes.set(lastIndex, sourceArrayIndexes.get(lastIndex) + 1);
+                    continue;
+                }
 
-                    // add parent
-                    sourceNodeParents.add(sourceArrayNode);
+                // add parent
+                context.sourceNodeParents.add(sourceArrayNode);
 
-                    // update source path
-                    sourceNodePath += PATH_SEPARATOR + count;
+                // update source path
+                context.sourceNodePath.append(PATH_SEPARATOR).append(index);
 
-                    if (transformElement.has(VALUE) || transformElement.has(EXPRESSION))
-                    {
-                       // simple values transform
-                       targetArray.add(transformExpression(sourceArrayNode, transformElement));
-                    }
-                    else
-                    {
-                        ObjectNode targetElement = mapper.createObjectNode();
-                        targetArray.add(targetElement);
+                // visit array element, use transform array first element as model
+                targetArray.add(transformElement(sourceArrayNode, transformElement, context));
 
-                        // visit array element, use transform array first element as model
-                        transformNode(sourceArrayNode, transformElement, targetElement);
-                    }
+                // remove parent
+                context.sourceNodeParents.remove(context.sourceNodeParents.size() - 1);
 
-                    // remove parent
-                    sourceNodeParents.remove(sourceNodeParents.size() - 1);
+                // restore source path
+                context.sourceNodePath.setLength(sourceNodePathLength);
 
-                    // restore source path
-                    sourceNodePath = sourceNodePath.substring(0, sourceNodePath.lastIndexOf(PATH_SEPARATOR));
+                if (sorted && keep >= 0 && targetArray.size() >= bufferSize)
+                {
+                    JsonNode currentSourceNode = context.sourceNode;
+                    context.sourceNode = sourceNode;
+                    sortArray(targetArray, arrayStep.sortNode, context);
+                    limitArray(targetArray, 0, keep);
+                    context.sourceNode = currentSourceNode;
                 }
             }
-
-            // restore sourceNode to array node
-            this.sourceNode = sourceNode;
-
-            // sort directive
-            sortArray(targetArray, transformNode);
         }
-        else
+    }
+
+    private void processArrayParallel(
+        final JsonNode sourceNode,
+        final ArrayStep arrayStep,
+        final ArrayNode targetArray,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        // filters run in sequence, so they see the same array index as a sequential transformation,
+        // arrays with $sort and $limit are not transformed in parallel
+        int lastIndex = context.sourceArrayIndexes.size() - 1;
+        boolean sorted = arrayStep.sortNode != null;
+        int stop = sorted ? -1 : arrayStep.getKeep();
+        boolean grouped = arrayStep.groupKeys != null;
+        List<JsonNode> sourceElements = new ArrayList<JsonNode>(sourceNode.size());
+        for (JsonNode sourceArrayNode : sourceNode)
         {
-            // process each element of transform array
-            for (JsonNode childElementNode : transformArray)
+            if (stop >= 0 && context.sourceArrayIndexes.get(lastIndex) + 1 >= stop)
+            {
+                break;
+            }
+            if (grouped || includeArrayNode(sourceArrayNode, arrayStep, context))
             {
-                if (childElementNode.get(VALUE) != null
-                    || childElementNode.get(EXPRESSION) != null)
+                int index = context.sourceArrayIndexes.get(lastIndex) + 1;
+                context.sourceArrayIndexes.set(lastIndex, index);
+                if (sorted || index >= arrayStep.offset)
                 {
-                    // simple values
-                    targetArray.add(transformExpression(sourceNode, childElementNode));
+                    sourceElements.add(sourceArrayNode);
                 }
-                else if (childElementNode.isObject())
-                {
-                    // object values
-                    ObjectNode targetElement = mapper.createObjectNode();
-                    targetArray.add(targetElement);
+            }
+        }
 
-                    // visit array element
-                    transformNode(sourceNode, childElementNode, targetElement);
-                }
-                else if (childElementNode.isArray())
+        // elements are transformed in chunks, each chunk with its own context
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int chunkSize = Math.max(1, sourceElements.size() / (pool.getParallelism() * 4));
+        JsonNode[] targetElements = new JsonNode[sourceElements.size()];
+        try
+        {
+            pool.invoke(new ParallelArrayTask(
+                this, context, arrayStep.elementModel, sourceElements, targetElements,
+                sorted ? 0 : arrayStep.offset, 0, sourceElements.size(), chunkSize));
+        }
+        catch (RuntimeException rEx)
+        {
+            // report the exception of the failed element
+            for (Throwable cause = rEx; cause != null; cause = cause.getCause())
+            {
+                if (cause instanceof ObjectTransformerException)
                 {
-                    // TODO nested arrays
+                    throw (ObjectTransformerException)cause;
                 }
-                else
+            }
+            throw rEx;
+        }
+
+        targetArray.addAll(Arrays.asList(targetElements));
+    }
+
+    /**
+     * Partition the source elements kept by the filters into group source nodes,
+     * the source array is in memory so groups only reference its elements.
+     */
+    ArrayNode groupArray(
+        final JsonNode sourceNode,
+        final ArrayStep arrayStep,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        ArrayNode groupsNode = mapper.createArrayNode();
+        try (ArrayGroups groups = new ArrayGroups(mapper, arrayStep.groupKeys, 0, null))
+        {
+            for (JsonNode sourceArrayNode : sourceNode)
+            {
+                if (includeArrayNode(sourceArrayNode, arrayStep, context))
                 {
-                    // copy map value to target
-                    targetArray.add(childElementNode);
+                    groups.add(sourceArrayNode, context);
                 }
             }
+
+            ObjectNode groupNode;
+            while ((groupNode = groups.next()) != null)
+            {
+                groupsNode.add(groupNode);
+            }
+        }
+        catch (IOException ioEx)
+        {
+            // groups in memory are not spilled
+            throw new ObjectTransformerException("Cannot group array " + context.getSourceNodePath(), ioEx);
         }
 
-        // remove array index
-        sourceArrayIndexes.remove(lastIndex);
+        return groupsNode;
     }
 
-    private boolean includeArrayNode(
+    JsonNode transformElement(
+        final JsonNode sourceNode,
+        final Step elementStep,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        JsonNode targetElement;
+        switch (elementStep.kind())
+        {
+            case VALUE:
+                // simple values
+                targetElement = transformValueNode(sourceNode, ((ValueStep)elementStep).valuePath, context);
+                break;
+            case EXPRESSION:
+                targetElement = transformExpression(sourceNode, (ExpressionStep)elementStep, context);
+                break;
+            case OBJECT:
+                // object values
+                ObjectNode targetObject = mapper.createObjectNode();
+                transformNode(sourceNode, (ObjectStep)elementStep, targetObject, context);
+                targetElement = targetObject;
+                break;
+            default:
+                // copy map value to target
+                targetElement = elementStep.transformNode;
+                break;
+        }
+
+        return targetElement;
+    }
+
+    boolean includeArrayNode(
         final JsonNode sourceArrayNode,
-        final JsonNode transformNode)
+        final ArrayStep arrayStep,
+        final TransformContext context)
     throws ObjectTransformerException
     {
         boolean include = false;
 
         // includes
-        JsonNode includeFilterNode = transformNode.path(FILTER_INCLUDE);
-        if (includeFilterNode.isArray())
+        List<FilterStep> includeFilters = arrayStep.includeFilters;
+        if (includeFilters != null)
         {
-            for (JsonNode filterNode : includeFilterNode)
+            for (FilterStep filter : includeFilters)
             {
-                if (filterResult(filterNode, sourceArrayNode))
+                if (filterResult(filter, sourceArrayNode, context))
                 {
                     include = true;
                     break;
@@ -499,12 +1182,12 @@ public class ObjectTransformer
         }
 
         // excludes
-        JsonNode excludeFilterNode = transformNode.path(FILTER_EXCLUDE);
-        if (excludeFilterNode.isArray())
+        List<FilterStep> excludeFilters = arrayStep.excludeFilters;
+        if (include && excludeFilters != null)
         {
-            for (JsonNode filterNode : excludeFilterNode)
+            for (FilterStep filter : excludeFilters)
             {
-                if (filterResult(filterNode, sourceArrayNode))
+                if (filterResult(filter, sourceArrayNode, context))
                 {
                     include = false;
                     break;
@@ -516,201 +1199,175 @@ public class ObjectTransformer
     }
 
     private boolean filterResult(
-        final JsonNode filterNode,
-        final JsonNode sourceArrayNode)
+        final FilterStep filter,
+        final JsonNode sourceArrayNode,
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        boolean result;
-
-        // the first field name identifies the filter name
-        // e.g. {"$contains":{"$value":"name", "$what":"txt"}}
-        String filterName = filterNode.fieldNames().next();
-        try
-        {
-            ArrayFilter filter = ArrayFilter.valueOf(filterName.toUpperCase());
-            result = filter.evaluate(filterNode, sourceArrayNode, this);
-        }
-        catch (IllegalArgumentException iaEx)
+        if (filter.builtIn == null)
         {
-            // filter name may be a Java class that identifies a filter plugin
-            String pluginClassName = filterName.replaceFirst("\\$", "");
-            result = pluginManager.filterPluginEvaluate(
-                pluginClassName, filterNode, sourceArrayNode, this);
+            // filter name is a Java class that identifies a filter plugin
+            return context.handlers.getFilter(filter.name).evaluate(filter.filterNode, sourceArrayNode, context);
         }
 
-        return result;
+        // built-in filters are compiled with the plan
+        JsonNode valueNode = filter.builtIn.usesValue(sourceArrayNode)
+            ? transformValueNode(sourceArrayNode, filter.valuePath, context)
+            : sourceArrayNode;
+        return filter.matcher.matches(valueNode);
     }
 
-    private JsonNode updateSourceFromPath(
+    JsonNode updateSourceFromPath(
         final JsonNode sourceNode,
-        final JsonNode pathNode)
+        final PathExpression path,
+        final TransformContext context)
     throws ObjectTransformerException
     {
         // use transformNode $path or $value to find the source node
         JsonNode resultNode = sourceNode;
-        if (pathNode != null)
+        if (path != null)
         {
-            // remember current parent index
-            int parentIndex = sourceNodeParents.size() - 1;
-
-            // e.g path: items|0|items|0|items
-            String regExp = "[" + PATH_SEPARATOR + "]";
-            String[] pathParts = pathNode.asText().split(regExp);
-            for (String part : pathParts)
-            {
-                if (!part.equalsIgnoreCase(".."))
-                {
-                    // reset pointer to current parent
-                    parentIndex = sourceNodeParents.size() - 1;
-                }
-
-                // $i in path refers to current array index
-                if (sourceArrayIndexes.size() > 0)
-                {
-                    part = part.replace(
-                        EXPRESSION_$I,
-                        String.valueOf(sourceArrayIndexes.get(sourceArrayIndexes.size() - 1)));
-                }
-
-                if (part.equalsIgnoreCase("..") && --parentIndex >= 0)
-                {
-                    // parent object
-                    resultNode = sourceNodeParents.get(parentIndex);
-                }
-                else if (resultNode.isArray())
-                {
-                    try
-                    {
-                        // handle array indexes in path
-                        int index = Integer.parseInt(part);
-
-                        // array element access
-                        resultNode = resultNode.path(index);
-                    }
-                    catch (Exception e)
-                    {
-                        if (part.contains("="))
-                        {
-                            // array search by fieldname=value
-                            String [] searchParts = part.split("=");
-                            for (JsonNode elementNode : resultNode)
-                            {
-                                if (elementNode.path(searchParts[0]).asText().contains(searchParts[1]))
-                                {
-                                    resultNode = elementNode;
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                }
-                else if (part.isEmpty() && pathParts.length > 1)
-                {
-                    // absolute path to source root
-                    resultNode = sourceRoot;
-                }
-                else if (resultNode.isObject())
-                {
-                    // find by field name
-                    resultNode = resultNode.path(part);
-                }
-                else
-                {
-                    if (Boolean.valueOf(properties.getProperty(
-                        "exception.on.path.resolution", "false")) == true)
-                    {
-                        throw new ObjectTransformerException(
-                            "Cannot resolve path " + pathNode.asText() 
-                            + " for source node " + sourceNode.toString());
-                    }
-                }
-
-                sourceNodeParents.add(resultNode);
-            }
-
-            // update path
-            sourceNodePath += PATH_SEPARATOR + pathNode.asText();
+            resultNode = path.resolve(sourceNode, context);
         }
 
         return resultNode;
     }
 
-    @SuppressWarnings("unused")
-    private void restoreSourceFromPath(
+    void restoreSourceFromPath(
         final JsonNode sourceNode,
-        final JsonNode pathNode)
-    throws ObjectTransformerException
+        final PathExpression path,
+        final TransformContext context)
     {
-        if (pathNode != null)
+        if (path != null)
         {
-            // e.g path structure: items|0|items|0|items
-            int lastParentIndex = sourceNodeParents.size() - 1;
-            String regExp = "[" + PATH_SEPARATOR + "]";
-            String[] pathParts = pathNode.asText().split(regExp);
-            for (String part : pathParts)
-            {
-                sourceNodeParents.remove(lastParentIndex--);
-            }
+            path.restore(context);
 
-            sourceNodePath = sourceNodePath.substring(
-                0, sourceNodePath.lastIndexOf(PATH_SEPARATOR + pathNode.asText()));
-
-            this.sourceNode = sourceNode;
+            context.sourceNode = sourceNode;
         }
     }
 
     private void validateNode(
         final JsonNode resultNode,
-        final JsonNode transformNode)
+        final JsonNode transformNode,
+        final TransformContext context)
     throws ObjectTransformerException
     {
         JsonNode constraintsArray = transformNode.path(CONSTRAINTS);
         if (constraintsArray.isArray())
         {
-            for (JsonNode constraintNode : constraintsArray)
+            // e.g. "$constraints":[{"$required":true}, {"$type":"string"}, {"$values":["a","b","c"]}]
+            // transform nodes outside the plan are compiled once per transformation
+            validateConstraints(context.getConstraints(constraintsArray), resultNode, context);
+        }
+    }
+
+    private void validateConstraints(
+        final List<ConstraintStep> constraints,
+        final JsonNode resultNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        for (ConstraintStep constraint : constraints)
+        {
+            if (constraint.builtIn == null)
             {
-                // the first field name identifies the constraint name
-                // e.g. "$constraints":[{"$required":true}, {"$type":"string"}, {"$values":["a","b","c"]}]
-                String constraintName = constraintNode.fieldNames().next();
-                try
-                {
-                    Constraint constraint = Constraint.valueOf(constraintName.toUpperCase());
-                    constraint.validate(constraintNode, resultNode, this);
-                }
-                catch (IllegalArgumentException iaEx)
-                {
-                    // contraint name may be a Java class that identifies a constraint plugin
-                    String pluginClassName = constraintName.replaceFirst("\\$", "");
-                    pluginManager.constraintPluginValidate(
-                        pluginClassName, constraintNode, resultNode, this);
-                }
+                // constraint name is a Java class that identifies a constraint plugin
+                validateConstraint(constraint.name, constraint.constraintNode, resultNode, context);
+            }
+            else if (!constraint.validator.isValid(resultNode))
+            {
+                reportViolation(
+                    new ConstraintViolationException(constraint.builtIn.toString(), resultNode, context), context);
             }
         }
     }
 
+    private void validateConstraint(
+        final String constraintName,
+        final JsonNode constraintNode,
+        final JsonNode resultNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        // a constraint that cannot be found is an error of the map, not a violation
+        ConstraintHandler handler = context.handlers.getConstraint(constraintName);
+        try
+        {
+            handler.validate(constraintNode, resultNode, context);
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            if (context.validationReport == null)
+            {
+                throw otEx;
+            }
+
+            // plugins report violations with their own exceptions
+            reportViolation(otEx instanceof ConstraintViolationException
+                ? (ConstraintViolationException)otEx
+                : new ConstraintViolationException(constraintName, resultNode, context, otEx), context);
+        }
+    }
+
+    /**
+     * Throw a violation, or add it to the report of the transformation if there is one.
+     */
+    private void reportViolation(
+        final ConstraintViolationException violation,
+        final TransformContext context)
+    throws ConstraintViolationException
+    {
+        if (context.validationReport == null)
+        {
+            throw violation;
+        }
+
+        context.validationReport.add(violation);
+    }
+
+    /**
+     * Keep the elements of a target array from offset, at most limit of them if not negative.
+     */
+    private static void limitArray(
+        final ArrayNode targetArray,
+        final int offset,
+        final int limit)
+    {
+        int size = targetArray.size();
+        int end = limit < 0 ? size : (int)Math.min(size, (long)offset + limit);
+        if (offset == 0 && end == size)
+        {
+            return;
+        }
+
+        List<JsonNode> elements = new ArrayList<JsonNode>(Math.max(end - offset, 0));
+        for (int i = offset; i < end; i++)
+        {
+            elements.add(targetArray.get(i));
+        }
+        targetArray.removeAll();
+        targetArray.addAll(elements);
+    }
+
     private void sortArray(
         final ArrayNode targetArray,
-        final JsonNode transformNode)
+        final JsonNode sortNode,
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        JsonNode sortNode = transformNode.get(SORT);
-        if (sortNode != null)
+        if (sortNode != null && sortNode.isArray())
+        {
+            // many sort keys
+            // {"$sort":[{"$ascending":{"$by":{"$value":"name"}}}, {"$descending":{"$by":{"$value":"age"}}}]}
+            ArraySort.sortByKeys(targetArray, sortNode, context);
+        }
+        else if (sortNode != null)
         {
             // the first field name identifies the sort handler
             // {"$sort":{"$ascending":{"$by":{"$value":"."}}}}
+            // sort handler may also be a Java class that identifies a sort plugin
             String sortName = sortNode.fieldNames().next();
-            try
-            {
-                ArraySort sortHandler = ArraySort.valueOf(sortName.toUpperCase());
-                sortHandler.sort(targetArray, sortNode, this);
-            }
-            catch (IllegalArgumentException iaEx)
-            {
-                // sort handler may be a Java class that identifies a sort plugin
-                String pluginClassName = sortName.replaceFirst("\\$", "");
-                pluginManager.sortPluginSort(
-                    pluginClassName, targetArray, sortNode, this);
-            }
+            context.handlers.getSort(sortName).sort(targetArray, sortNode, context);
         }
     }
 }
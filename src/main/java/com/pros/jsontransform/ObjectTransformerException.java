@@ -40,4 +40,16 @@ public class ObjectTransformerException extends Exception
     {
         super(message, cause);
     }
+
+    /**
+     * An exception without stack trace when writableStackTrace is false,
+     * for errors that are expected and reported in numbers.
+     */
+    protected ObjectTransformerException(
+        final String message,
+        final Throwable cause,
+        final boolean writableStackTrace)
+    {
+        super(message, cause, true, writableStackTrace);
+    }
 }
@@ -20,7 +20,14 @@ import java.util.Properties;
 
 public enum ObjectTransformerProperty
 {
-    EXCEPTION_ON_PATH_RESOLUTION("exception.on.path.resolution", "false");
+    EXCEPTION_ON_PATH_RESOLUTION("exception.on.path.resolution", "false"),
+    GROUP_SPILL_FOLDER("group.spill.folder", ""),
+    GROUP_SPILL_THRESHOLD("group.spill.threshold", "0"),
+    OUTPUT_PRETTY_PRINT("output.pretty.print", "false"),
+    PARALLEL_ARRAY_THRESHOLD("parallel.array.threshold", "0"),
+    PLUGIN_WARM_UP("plugin.warm.up", "false"),
+    PLUGIN_RELOAD("plugin.reload", "false"),
+    TRANSFORM_MAP_CACHE_SIZE("transform.map.cache.size", "256");
 
     private final String name;
     private final String defaultValue;
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pros.jsontransform.TransformPlan.Step;
+
+/**
+ * Transform a range of source array elements, splitting the range across a ForkJoinPool.
+ * Each leaf range uses its own fork of the transformation context and stores the
+ * target elements at the index of their source element, so order is preserved.
+ */
+final class ParallelArrayTask extends RecursiveAction
+{
+    private static final long serialVersionUID = 1L;
+
+    private final ObjectTransformer transformer;
+    private final TransformContext context;
+    private final Step elementStep;
+    private final List<JsonNode> sourceElements;
+    private final JsonNode[] targetElements;
+
+    /** Array index of the first source element, elements before $offset are not transformed */
+    private final int firstIndex;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+
+    ParallelArrayTask(
+        final ObjectTransformer transformer,
+        final TransformContext context,
+        final Step elementStep,
+        final List<JsonNode> sourceElements,
+        final JsonNode[] targetElements,
+        final int firstIndex,
+        final int from,
+        final int to,
+        final int chunkSize)
+    {
+        this.transformer = transformer;
+        this.context = context;
+        this.elementStep = elementStep;
+        this.sourceElements = sourceElements;
+        this.targetElements = targetElements;
+        this.firstIndex = firstIndex;
+        this.from = from;
+        this.to = to;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected void compute()
+    {
+        if (to - from > chunkSize)
+        {
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                new ParallelArrayTask(
+                    transformer, context, elementStep, sourceElements, targetElements,
+                    firstIndex, from, middle, chunkSize),
+                new ParallelArrayTask(
+                    transformer, context, elementStep, sourceElements, targetElements,
+                    firstIndex, middle, to, chunkSize));
+            return;
+        }
+
+        TransformContext chunkContext = context.fork();
+        int lastIndex = chunkContext.sourceArrayIndexes.size() - 1;
+        int sourceNodePathLength = chunkContext.sourceNodePath.length();
+        for (int i = from; i < to; i++)
+        {
+            JsonNode sourceArrayNode = sourceElements.get(i);
+
+            // same context as a sequential transformation of the element
+            chunkContext.sourceArrayIndexes.set(lastIndex, firstIndex + i);
+            chunkContext.sourceNodeParents.add(sourceArrayNode);
+            chunkContext.sourceNodePath.append(ObjectTransformer.PATH_SEPARATOR).append(firstIndex + i);
+
+            try
+            {
+                targetElements[i] = transformer.transformElement(sourceArrayNode, elementStep, chunkContext);
+            }
+            catch (ObjectTransformerException otEx)
+            {
+                completeExceptionally(otEx);
+                return;
+            }
+
+            chunkContext.sourceNodeParents.remove(chunkContext.sourceNodeParents.size() - 1);
+            chunkContext.sourceNodePath.setLength(sourceNodePathLength);
+        }
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A $path or $value directive parsed into typed segments.
+ *
+ * e.g. path: items|0|..|name=Helen|$i
+ *
+ * The path text is split once, resolving the path against a source node
+ * walks the segments without parsing, allocation or exceptions.
+ */
+final class PathExpression
+{
+    /** The path segment types */
+    enum SegmentType
+    {
+        /** Field name, e.g. name */
+        FIELD,
+        /** Array index, e.g. 0 */
+        INDEX,
+        /** Parent node, i.e. .. */
+        PARENT,
+        /** Source root, an empty segment as in |person */
+        ROOT,
+        /** Index of the array being processed, i.e. $i */
+        CURRENT_INDEX,
+        /** Array search by field value, e.g. name=Helen */
+        SEARCH,
+        /** Array lookup by exact field value, e.g. name==Helen */
+        LOOKUP,
+        /** Any other segment that refers to $i, e.g. item$i */
+        TEMPLATE
+    }
+
+    /** One segment of a path */
+    static final class Segment
+    {
+        final SegmentType type;
+
+        /** The segment text, used as field name on objects */
+        final String text;
+
+        /** The array index for INDEX segments */
+        final int index;
+
+        /** The field name for SEARCH and LOOKUP segments */
+        final String searchField;
+
+        /** The field value for SEARCH and LOOKUP segments */
+        final String searchValue;
+
+        Segment(
+            final SegmentType type,
+            final String text,
+            final int index,
+            final String searchField,
+            final String searchValue)
+        {
+            this.type = type;
+            this.text = text;
+            this.index = index;
+            this.searchField = searchField;
+            this.searchValue = searchValue;
+        }
+    }
+
+    /** Value returned by parseIndex when the text is not an integer */
+    private static final long NOT_AN_INDEX = Long.MIN_VALUE;
+
+    /** The path as written in the transform map */
+    private final String text;
+
+    /** The parsed path segments */
+    private final Segment[] segments;
+
+    private PathExpression(final String text, final Segment[] segments)
+    {
+        this.text = text;
+        this.segments = segments;
+    }
+
+    /**
+     * Parse a path, e.g. items|0|items|0|items
+     */
+    static PathExpression compile(final String pathText)
+    {
+        String[] pathParts = pathText.split("[" + ObjectTransformer.PATH_SEPARATOR + "]");
+        Segment[] segments = new Segment[pathParts.length];
+        for (int i = 0; i < pathParts.length; i++)
+        {
+            segments[i] = compileSegment(pathParts[i], pathParts.length);
+        }
+
+        return new PathExpression(pathText, segments);
+    }
+
+    /**
+     * Parse the $value of a transform node, null if there is no $value or it is "."
+     */
+    static PathExpression compileValue(final JsonNode transformNode)
+    {
+        PathExpression valuePath = null;
+        JsonNode valueNode = transformNode.get(ObjectTransformer.VALUE);
+        if (valueNode != null && !valueNode.asText().equalsIgnoreCase(ObjectTransformer.PATH_DOT))
+        {
+            valuePath = compile(valueNode.asText());
+        }
+
+        return valuePath;
+    }
+
+    /**
+     * Parse the $path of a transform node, null if there is no $path.
+     */
+    static PathExpression compilePath(final JsonNode transformNode)
+    {
+        JsonNode pathNode = transformNode.get(ObjectTransformer.PATH);
+        return pathNode == null ? null : compile(pathNode.asText());
+    }
+
+    private static Segment compileSegment(final String part, final int partCount)
+    {
+        SegmentType type;
+        int index = 0;
+        String searchField = null;
+        String searchValue = null;
+
+        long parsedIndex = parseIndex(part);
+        if (part.equals(ObjectTransformer.EXPRESSION_$I))
+        {
+            type = SegmentType.CURRENT_INDEX;
+        }
+        else if (part.contains(ObjectTransformer.EXPRESSION_$I))
+        {
+            type = SegmentType.TEMPLATE;
+        }
+        else if (part.equals(".."))
+        {
+            type = SegmentType.PARENT;
+        }
+        else if (parsedIndex != NOT_AN_INDEX)
+        {
+            type = SegmentType.INDEX;
+            index = (int)parsedIndex;
+        }
+        else if (part.contains("=="))
+        {
+            type = SegmentType.LOOKUP;
+            int separator = part.indexOf("==");
+            searchField = part.substring(0, separator);
+            searchValue = part.substring(separator + 2);
+        }
+        else if (part.contains("="))
+        {
+            type = SegmentType.SEARCH;
+            String[] searchParts = part.split("=");
+            searchField = searchParts.length > 0 ? searchParts[0] : "";
+            searchValue = searchParts.length > 1 ? searchParts[1] : "";
+        }
+        else if (part.isEmpty() && partCount > 1)
+        {
+            type = SegmentType.ROOT;
+        }
+        else
+        {
+            type = SegmentType.FIELD;
+        }
+
+        return new Segment(type, part, index, searchField, searchValue);
+    }
+
+    /**
+     * Parse an array index the way Integer.parseInt does, without throwing.
+     */
+    private static long parseIndex(final String part)
+    {
+        int length = part.length();
+        if (length == 0)
+        {
+            return NOT_AN_INDEX;
+        }
+
+        int start = 0;
+        boolean negative = false;
+        char first = part.charAt(0);
+        if (first == '-' || first == '+')
+        {
+            negative = first == '-';
+            start = 1;
+            if (length == 1)
+            {
+                return NOT_AN_INDEX;
+            }
+        }
+
+        long value = 0;
+        for (int i = start; i < length; i++)
+        {
+            int digit = Character.digit(part.charAt(i), 10);
+            if (digit < 0)
+            {
+                return NOT_AN_INDEX;
+            }
+            value = value * 10 + digit;
+            if (value > -(long)Integer.MIN_VALUE)
+            {
+                return NOT_AN_INDEX;
+            }
+        }
+        value = negative ? -value : value;
+
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? NOT_AN_INDEX : value;
+    }
+
+    String getText()
+    {
+        return text;
+    }
+
+    /**
+     * True if the path has a segment of the given type.
+     */
+    boolean hasSegment(final SegmentType type)
+    {
+        for (Segment segment : segments)
+        {
+            if (segment.type == type)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The field names of the path when it only contains field segments, null otherwise.
+     */
+    List<String> getFieldNames()
+    {
+        List<String> fieldNames = new ArrayList<String>(segments.length);
+        for (Segment segment : segments)
+        {
+            if (segment.type != SegmentType.FIELD)
+            {
+                return null;
+            }
+            fieldNames.add(segment.text);
+        }
+        return fieldNames;
+    }
+
+    /**
+     * The field looked up by the first segment when the path starts from an object,
+     * null when it depends on the array being processed.
+     */
+    String getFirstFieldName()
+    {
+        Segment first = segments[0];
+        if (first.type == SegmentType.CURRENT_INDEX || first.type == SegmentType.TEMPLATE)
+        {
+            return null;
+        }
+        return first.text;
+    }
+
+    /**
+     * Find the node identified by the path starting from sourceNode.
+     *
+     * Each resolved segment is pushed on the context parents so that
+     * following .. segments can walk back, restore() removes them.
+     */
+    JsonNode resolve(
+        final JsonNode sourceNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        JsonNode resultNode = sourceNode;
+        List<JsonNode> sourceNodeParents = context.sourceNodeParents;
+        List<Integer> sourceArrayIndexes = context.sourceArrayIndexes;
+
+        // remember current parent index
+        int parentIndex = sourceNodeParents.size() - 1;
+
+        for (Segment segment : segments)
+        {
+            if (segment.type != SegmentType.PARENT)
+            {
+                // reset pointer to current parent
+                parentIndex = sourceNodeParents.size() - 1;
+            }
+
+            switch (segment.type)
+            {
+                case PARENT:
+                    if (--parentIndex >= 0)
+                    {
+                        // parent object
+                        resultNode = sourceNodeParents.get(parentIndex);
+                    }
+                    else
+                    {
+                        resultNode = resolveField(resultNode, segment.text, sourceNode, context);
+                    }
+                    break;
+                case INDEX:
+                    resultNode = resolveIndex(
+                        resultNode, segment.index, segment.text, sourceNode, context);
+                    break;
+                case CURRENT_INDEX:
+                    if (sourceArrayIndexes.size() > 0)
+                    {
+                        // $i in path refers to current array index
+                        int index = sourceArrayIndexes.get(sourceArrayIndexes.size() - 1);
+                        resultNode = resolveIndex(resultNode, index, null, sourceNode, context);
+                    }
+                    else
+                    {
+                        resultNode = resolveField(resultNode, segment.text, sourceNode, context);
+                    }
+                    break;
+                case SEARCH:
+                    if (resultNode.isArray())
+                    {
+                        resultNode = search(resultNode, segment.searchField, segment.searchValue);
+                    }
+                    else
+                    {
+                        resultNode = resolveField(resultNode, segment.text, sourceNode, context);
+                    }
+                    break;
+                case LOOKUP:
+                    if (resultNode.isArray())
+                    {
+                        resultNode = lookup(
+                            resultNode, segment.searchField, segment.searchValue, context);
+                    }
+                    else
+                    {
+                        resultNode = resolveField(resultNode, segment.text, sourceNode, context);
+                    }
+                    break;
+                case ROOT:
+                    if (!resultNode.isArray())
+                    {
+                        // absolute path to source root
+                        resultNode = context.sourceRoot;
+                    }
+                    break;
+                case TEMPLATE:
+                    resultNode = resolveTemplate(resultNode, segment.text, sourceNode, context);
+                    break;
+                default:
+                    resultNode = resolveField(resultNode, segment.text, sourceNode, context);
+                    break;
+            }
+
+            sourceNodeParents.add(resultNode);
+        }
+
+        // update path
+        context.sourceNodePath.append(ObjectTransformer.PATH_SEPARATOR).append(text);
+
+        return resultNode;
+    }
+
+    /**
+     * Remove the parents pushed by resolve().
+     */
+    void restore(final TransformContext context)
+    {
+        List<JsonNode> sourceNodeParents = context.sourceNodeParents;
+        for (int i = 0; i < segments.length; i++)
+        {
+            sourceNodeParents.remove(sourceNodeParents.size() - 1);
+        }
+
+        StringBuilder sourceNodePath = context.sourceNodePath;
+        sourceNodePath.setLength(sourceNodePath.length() - text.length() - 1);
+    }
+
+    private JsonNode resolveField(
+        final JsonNode resultNode,
+        final String fieldName,
+        final JsonNode sourceNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        if (resultNode.isObject())
+        {
+            // find by field name
+            return resultNode.path(fieldName);
+        }
+        if (!resultNode.isArray())
+        {
+            unresolved(sourceNode, context);
+        }
+        return resultNode;
+    }
+
+    private JsonNode resolveIndex(
+        final JsonNode resultNode,
+        final int index,
+        final String fieldName,
+        final JsonNode sourceNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        if (resultNode.isArray())
+        {
+            // array element access
+            return resultNode.path(index);
+        }
+        return resolveField(
+            resultNode, fieldName == null ? String.valueOf(index) : fieldName, sourceNode, context);
+    }
+
+    private JsonNode resolveTemplate(
+        final JsonNode resultNode,
+        final String part,
+        final JsonNode sourceNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        List<Integer> sourceArrayIndexes = context.sourceArrayIndexes;
+        if (sourceArrayIndexes.size() == 0)
+        {
+            if (part.contains("="))
+            {
+                // a search value of $i has no meaning outside an array
+                throw new ObjectTransformerException(
+                    "Cannot resolve " + ObjectTransformer.EXPRESSION_$I + " of path " + text
+                    + " outside an array for source node " + sourceNode.toString());
+            }
+            return resolvePart(resultNode, part, sourceNode, context);
+        }
+
+        // $i in path refers to current array index
+        String resolvedPart = part.replace(
+            ObjectTransformer.EXPRESSION_$I,
+            String.valueOf(sourceArrayIndexes.get(sourceArrayIndexes.size() - 1)));
+
+        return resolvePart(resultNode, resolvedPart, sourceNode, context);
+    }
+
+    private JsonNode resolvePart(
+        final JsonNode resultNode,
+        final String part,
+        final JsonNode sourceNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        if (resultNode.isArray())
+        {
+            long index = parseIndex(part);
+            if (index != NOT_AN_INDEX)
+            {
+                // array element access
+                return resultNode.path((int)index);
+            }
+            if (part.contains("="))
+            {
+                Segment segment = compileSegment(part, segments.length);
+                return segment.type == SegmentType.LOOKUP
+                    ? lookup(resultNode, segment.searchField, segment.searchValue, context)
+                    : search(resultNode, segment.searchField, segment.searchValue);
+            }
+            return resultNode;
+        }
+
+        return resolveField(resultNode, part, sourceNode, context);
+    }
+
+    private static JsonNode search(
+        final JsonNode arrayNode,
+        final String searchField,
+        final String searchValue)
+    {
+        // array search by fieldname=value
+        for (JsonNode elementNode : arrayNode)
+        {
+            if (elementNode.path(searchField).asText().contains(searchValue))
+            {
+                return elementNode;
+            }
+        }
+        return arrayNode;
+    }
+
+    private static JsonNode lookup(
+        final JsonNode arrayNode,
+        final String searchField,
+        final String searchValue,
+        final TransformContext context)
+    {
+        // array lookup by fieldname==value, the index is built on first use
+        JsonNode elementNode = context.getArrayIndex(arrayNode, searchField).get(searchValue);
+        return elementNode == null ? arrayNode : elementNode;
+    }
+
+    private void unresolved(
+        final JsonNode sourceNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        if (Boolean.valueOf(ObjectTransformerProperty.getProperty(
+            context.getTransformer().properties,
+            ObjectTransformerProperty.EXCEPTION_ON_PATH_RESOLUTION)) == true)
+        {
+            throw new ObjectTransformerException(
+                "Cannot resolve path " + text
+                + " for source node " + sourceNode.toString());
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return text;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pros.jsontransform.TransformPlan.ArrayStep;
+import com.pros.jsontransform.TransformPlan.ExpressionStep;
+import com.pros.jsontransform.TransformPlan.Kind;
+import com.pros.jsontransform.TransformPlan.ObjectStep;
+import com.pros.jsontransform.TransformPlan.Step;
+import com.pros.jsontransform.TransformPlan.StructureStep;
+
+/**
+ * Check a source against the constraints of a transform plan without building the target.
+ *
+ * Only the steps with constraints below them are visited. $path, $include, $exclude
+ * and $offset/$limit without $sort are applied as in a transformation, so constraints
+ * see the same values, indexes and elements. With $sort, all included elements are
+ * checked, as a transformation checks them before the sort.
+ */
+final class PlanValidation
+{
+    private final ObjectTransformer transformer;
+    private final TransformContext context;
+
+    PlanValidation(
+        final ObjectTransformer transformer,
+        final TransformContext context)
+    {
+        this.transformer = transformer;
+        this.context = context;
+    }
+
+    void validate(final TransformPlan plan)
+    throws ObjectTransformerException
+    {
+        validateObject(context.sourceRoot, plan.getRoot());
+    }
+
+    private void validateObject(
+        final JsonNode sourceNode,
+        final ObjectStep objectStep)
+    throws ObjectTransformerException
+    {
+        context.sourceNode = sourceNode;
+        context.transformNode = objectStep.transformNode;
+
+        // process $path directive
+        JsonNode newSourceNode = transformer.updateSourceFromPath(sourceNode, objectStep.path, context);
+
+        for (Step step : objectStep.children)
+        {
+            if (step.hasConstraints())
+            {
+                context.transformNodeFieldName = step.fieldName;
+                validateStep(newSourceNode, step);
+            }
+        }
+
+        // restore path
+        transformer.restoreSourceFromPath(sourceNode, objectStep.path, context);
+    }
+
+    private void validateStep(
+        final JsonNode sourceNode,
+        final Step step)
+    throws ObjectTransformerException
+    {
+        switch (step.kind())
+        {
+            case EXPRESSION:
+                // the value is computed for its constraints only
+                transformer.transformExpression(sourceNode, (ExpressionStep)step, context);
+                break;
+            case OBJECT:
+                validateObject(sourceNode, (ObjectStep)step);
+                break;
+            case STRUCTURE:
+                StructureStep structureStep = (StructureStep)step;
+                JsonNode newSourceNode = transformer.updateSourceFromPath(sourceNode, structureStep.path, context);
+                if (structureStep.structure.kind() == Kind.OBJECT)
+                {
+                    validateObject(newSourceNode, (ObjectStep)structureStep.structure);
+                }
+                else
+                {
+                    validateArray(newSourceNode, (ArrayStep)structureStep.structure);
+                }
+                transformer.restoreSourceFromPath(sourceNode, structureStep.path, context);
+                break;
+            case ARRAY:
+                validateArray(sourceNode, (ArrayStep)step);
+                break;
+            default:
+                // values and literals have no constraints
+                break;
+        }
+    }
+
+    private void validateArray(
+        final JsonNode sourceNode,
+        final ArrayStep arrayStep)
+    throws ObjectTransformerException
+    {
+        // add array index
+        context.sourceArrayIndexes.add(-1);
+        int lastIndex = context.sourceArrayIndexes.size() - 1;
+
+        if (sourceNode.isArray() && arrayStep.elementModel.hasConstraints())
+        {
+            int sourceNodePathLength = context.sourceNodePath.length();
+            boolean sorted = arrayStep.sortNode != null;
+            int keep = arrayStep.getKeep();
+            int stop = sorted && keep != 0 ? -1 : keep;
+            boolean grouped = arrayStep.groupKeys != null;
+            JsonNode elementsNode = grouped ? transformer.groupArray(sourceNode, arrayStep, context) : sourceNode;
+            for (JsonNode sourceArrayNode : elementsNode)
+            {
+                if (stop >= 0 && context.sourceArrayIndexes.get(lastIndex) + 1 >= stop)
+                {
+                    break;
+                }
+                if (grouped || transformer.includeArrayNode(sourceArrayNode, arrayStep, context))
+                {
+                    int index = context.sourceArrayIndexes.get(lastIndex) + 1;
+                    context.sourceArrayIndexes.set(lastIndex, index);
+                    if (!sorted && index < arrayStep.offset)
+                    {
+                        continue;
+                    }
+
+                    context.sourceNodeParents.add(sourceArrayNode);
+                    context.sourceNodePath.append(ObjectTransformer.PATH_SEPARATOR).append(index);
+                    validateStep(sourceArrayNode, arrayStep.elementModel);
+                    context.sourceNodeParents.remove(context.sourceNodeParents.size() - 1);
+                    context.sourceNodePath.setLength(sourceNodePathLength);
+                }
+            }
+
+            // restore sourceNode to array node
+            context.sourceNode = sourceNode;
+        }
+        else if (!sourceNode.isArray())
+        {
+            for (Step childElement : arrayStep.elements)
+            {
+                if (childElement.hasConstraints())
+                {
+                    validateStep(sourceNode, childElement);
+                }
+            }
+        }
+
+        // remove array index
+        context.sourceArrayIndexes.remove(lastIndex);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ServiceConfigurationError;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reload the plugins of an ObjectTransformer when jars of the plugin folder change.
+ *
+ * Changes are collected until the folder is quiet for a moment, so that a jar being
+ * copied is loaded once complete. A reload that fails is logged and the previous
+ * plugins stay in use.
+ */
+final class PluginWatcher implements Runnable
+{
+    private final ObjectTransformer transformer;
+    private final Path folder;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /** Time without changes before jars are loaded */
+    private static final long QUIET_MILLIS = 500;
+
+    PluginWatcher(
+        final ObjectTransformer transformer,
+        final Path folder)
+    throws IOException
+    {
+        this.transformer = transformer;
+        this.folder = folder;
+        this.watchService = folder.getFileSystem().newWatchService();
+        folder.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+
+        this.thread = new Thread(this, "json-transform-plugin-watcher");
+        thread.setDaemon(true);
+    }
+
+    void start()
+    {
+        thread.start();
+    }
+
+    void stop()
+    {
+        thread.interrupt();
+        try
+        {
+            watchService.close();
+        }
+        catch (IOException ex)
+        {
+            transformer.getLogger().warn("Cannot stop watching plugin folder " + folder, ex);
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                if (!isJarChanged(watchService.take()))
+                {
+                    continue;
+                }
+
+                // wait until the folder is quiet
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                {
+                    isJarChanged(key);
+                }
+
+                try
+                {
+                    transformer.reloadPlugins();
+                }
+                catch (RuntimeException | ServiceConfigurationError ex)
+                {
+                    transformer.getLogger().error("Cannot reload plugins from folder " + folder, ex);
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException ex)
+        {
+            return;
+        }
+    }
+
+    private static boolean isJarChanged(final WatchKey key)
+    {
+        boolean jarChanged = false;
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() == OVERFLOW || event.context().toString().endsWith(".jar"))
+            {
+                jarChanged = true;
+            }
+        }
+        key.reset();
+
+        return jarChanged;
+    }
+}
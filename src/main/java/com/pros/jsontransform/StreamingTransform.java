@@ -0,0 +1,727 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.pros.jsontransform.TransformPlan.ArrayStep;
+import com.pros.jsontransform.TransformPlan.Kind;
+import com.pros.jsontransform.TransformPlan.ObjectStep;
+import com.pros.jsontransform.TransformPlan.Step;
+import com.pros.jsontransform.TransformPlan.StructureStep;
+
+/**
+ * Execute a transform plan reading the source from a JsonParser and
+ * writing the target to a JsonGenerator.
+ *
+ * Source objects are read forward only, the fields used by the map are kept
+ * until the object is mapped and the other fields are skipped. Objects and
+ * $structure arrays reached by a $path made of field names are streamed, array
+ * elements are read one at a time and mapped by ObjectTransformer. Everything
+ * else is mapped by ObjectTransformer from the fields kept in memory.
+ *
+ * Expressions without $value see the fields of the source object kept so far.
+ */
+final class StreamingTransform
+{
+    private final ObjectTransformer transformer;
+    private final ObjectMapper mapper;
+    private final JsonParser parser;
+    private final JsonGenerator generator;
+    private final TransformContext context;
+
+    StreamingTransform(
+        final ObjectTransformer transformer,
+        final JsonParser parser,
+        final JsonGenerator generator)
+    {
+        this.transformer = transformer;
+        this.mapper = transformer.mapper;
+        this.parser = parser;
+        this.generator = generator;
+
+        // the source root is never in memory, maps using it are rejected
+        this.context = new TransformContext(transformer, MissingNode.getInstance());
+    }
+
+    void transform(final TransformPlan plan)
+    throws ObjectTransformerException, IOException
+    {
+        plan.checkStreamable();
+
+        JsonToken token = parser.getCurrentToken();
+        if (token == null)
+        {
+            token = parser.nextToken();
+        }
+        if (token == null)
+        {
+            throw new ObjectTransformerException("Source JSON is empty");
+        }
+
+        ObjectStep root = plan.getRoot();
+        List<String> rootFieldNames = TransformPlan.getFieldNames(root.path);
+        if (token == JsonToken.START_OBJECT && rootFieldNames != null)
+        {
+            // plugins of this version stay loaded until the stream ends
+            context.handlers = transformer.acquireHandlers();
+            try
+            {
+                SourceObject sourceObject = new SourceObject();
+                appendPath(root.path);
+                streamObject(sourceObject, rootFieldNames, 0, root);
+                sourceObject.skip();
+            }
+            finally
+            {
+                context.handlers.release();
+            }
+        }
+        else
+        {
+            // source is not an object, read it at once
+            JsonNode sourceRoot = mapper.readTree(parser);
+            mapper.writeTree(generator, transformer.transform(sourceRoot, plan));
+        }
+
+        generator.flush();
+    }
+
+    /**
+     * Write the target object of an object step, the source object is moved by the field names of $path.
+     */
+    private void streamObject(
+        final SourceObject sourceObject,
+        final List<String> fieldNames,
+        final int fieldIndex,
+        final ObjectStep objectStep)
+    throws ObjectTransformerException, IOException
+    {
+        if (fieldIndex == fieldNames.size())
+        {
+            generator.writeStartObject();
+            streamFields(sourceObject, objectStep);
+            generator.writeEndObject();
+        }
+        else if (sourceObject.open(fieldNames.get(fieldIndex)) == JsonToken.START_OBJECT)
+        {
+            SourceObject childObject = new SourceObject();
+            streamObject(childObject, fieldNames, fieldIndex + 1, objectStep);
+            childObject.skip();
+            sourceObject.close();
+        }
+        else
+        {
+            JsonNode sourceNode = resolveFields(
+                sourceObject.read(fieldNames.get(fieldIndex)), fieldNames, fieldIndex + 1);
+            ObjectNode targetObject = mapper.createObjectNode();
+            context.sourceNode = sourceNode;
+            transformer.transformFields(sourceNode, objectStep, targetObject, context);
+            mapper.writeTree(generator, targetObject);
+        }
+    }
+
+    /**
+     * Write the target array of a $structure array, the source array is found by the field names of $path.
+     */
+    private void streamArray(
+        final SourceObject sourceObject,
+        final List<String> fieldNames,
+        final int fieldIndex,
+        final ArrayStep arrayStep)
+    throws ObjectTransformerException, IOException
+    {
+        boolean lastField = fieldIndex == fieldNames.size() - 1;
+        JsonToken token = sourceObject.open(fieldNames.get(fieldIndex));
+        if (!lastField && token == JsonToken.START_OBJECT)
+        {
+            SourceObject childObject = new SourceObject();
+            streamArray(childObject, fieldNames, fieldIndex + 1, arrayStep);
+            childObject.skip();
+            sourceObject.close();
+        }
+        else if (lastField && token == JsonToken.START_ARRAY)
+        {
+            streamElements(arrayStep);
+            sourceObject.close();
+        }
+        else
+        {
+            JsonNode sourceNode = resolveFields(
+                sourceObject.read(fieldNames.get(fieldIndex)), fieldNames, fieldIndex + 1);
+            ArrayNode targetArray = mapper.createArrayNode();
+            context.sourceNode = sourceNode;
+            transformer.processArray(sourceNode, arrayStep, targetArray, context);
+            mapper.writeTree(generator, targetArray);
+        }
+    }
+
+    /**
+     * Write the elements of a source array, the parser is on the start of the array.
+     */
+    private void streamElements(final ArrayStep arrayStep)
+    throws ObjectTransformerException, IOException
+    {
+        if (arrayStep.groupKeys != null)
+        {
+            streamGroups(arrayStep);
+            return;
+        }
+
+        // add array index
+        context.sourceArrayIndexes.add(-1);
+        int lastIndex = context.sourceArrayIndexes.size() - 1;
+        int sourceNodePathLength = context.sourceNodePath.length();
+
+        // elements after $limit are skipped without being read
+        int keep = arrayStep.getKeep();
+        generator.writeStartArray();
+        while (parser.nextToken() != JsonToken.END_ARRAY)
+        {
+            if (keep >= 0 && context.sourceArrayIndexes.get(lastIndex) + 1 >= keep)
+            {
+                parser.skipChildren();
+                continue;
+            }
+            JsonNode sourceArrayNode = mapper.readTree(parser);
+            if (transformer.includeArrayNode(sourceArrayNode, arrayStep, context))
+            {
+                // increment array index to point to new node
+                int index = context.sourceArrayIndexes.get(lastIndex) + 1;
+                context.sourceArrayIndexes.set(lastIndex, index);
+                if (index < arrayStep.offset)
+                {
+                    continue;
+                }
+
+                context.sourceNodeParents.add(sourceArrayNode);
+                context.sourceNodePath.append(ObjectTransformer.PATH_SEPARATOR).append(index);
+                mapper.writeTree(
+                    generator,
+                    transformer.transformElement(sourceArrayNode, arrayStep.elementModel, context));
+                context.sourceNodeParents.remove(context.sourceNodeParents.size() - 1);
+                context.sourceNodePath.setLength(sourceNodePathLength);
+            }
+        }
+        generator.writeEndArray();
+
+        // remove array index
+        context.sourceArrayIndexes.remove(lastIndex);
+    }
+
+    /**
+     * Write one target element per group of a $groupBy array, the parser is on the start of the array.
+     * The source elements are read one at a time and spilled to disk past the spill threshold.
+     */
+    private void streamGroups(final ArrayStep arrayStep)
+    throws ObjectTransformerException, IOException
+    {
+        int spillThreshold = arrayStep.spillThreshold < 0
+            ? transformer.groupSpillThreshold : arrayStep.spillThreshold;
+        try (ArrayGroups groups = new ArrayGroups(
+            mapper, arrayStep.groupKeys, spillThreshold, transformer.groupSpillFolder))
+        {
+            while (parser.nextToken() != JsonToken.END_ARRAY)
+            {
+                JsonNode sourceArrayNode = mapper.readTree(parser);
+                if (transformer.includeArrayNode(sourceArrayNode, arrayStep, context))
+                {
+                    groups.add(sourceArrayNode, context);
+                }
+            }
+
+            // add array index
+            context.sourceArrayIndexes.add(-1);
+            int lastIndex = context.sourceArrayIndexes.size() - 1;
+            int sourceNodePathLength = context.sourceNodePath.length();
+
+            int keep = arrayStep.getKeep();
+            generator.writeStartArray();
+            ObjectNode groupNode;
+            while ((groupNode = groups.next()) != null)
+            {
+                int index = context.sourceArrayIndexes.get(lastIndex) + 1;
+                if (keep >= 0 && index >= keep)
+                {
+                    break;
+                }
+                context.sourceArrayIndexes.set(lastIndex, index);
+                if (index < arrayStep.offset)
+                {
+                    continue;
+                }
+
+                context.sourceNodeParents.add(groupNode);
+                context.sourceNodePath.append(ObjectTransformer.PATH_SEPARATOR).append(index);
+                mapper.writeTree(
+                    generator,
+                    transformer.transformElement(groupNode, arrayStep.elementModel, context));
+                context.sourceNodeParents.remove(context.sourceNodeParents.size() - 1);
+                context.sourceNodePath.setLength(sourceNodePathLength);
+            }
+            generator.writeEndArray();
+
+            // remove array index
+            context.sourceArrayIndexes.remove(lastIndex);
+        }
+    }
+
+    /**
+     * Append the $path of a streamed step to the source path, as resolving it does in a tree
+     * transformation. Returns the length of the path before.
+     */
+    private int appendPath(final Step step)
+    {
+        int sourceNodePathLength = context.sourceNodePath.length();
+        if (step.kind() == Kind.OBJECT)
+        {
+            appendPath(((ObjectStep)step).path);
+        }
+        else
+        {
+            StructureStep structureStep = (StructureStep)step;
+            appendPath(structureStep.path);
+            if (structureStep.structure.kind() == Kind.OBJECT)
+            {
+                appendPath(((ObjectStep)structureStep.structure).path);
+            }
+        }
+
+        return sourceNodePathLength;
+    }
+
+    private void appendPath(final PathExpression path)
+    {
+        if (path != null)
+        {
+            context.sourceNodePath.append(ObjectTransformer.PATH_SEPARATOR).append(path);
+        }
+    }
+
+    /**
+     * Write the fields of an object step, the source object is already moved by $path.
+     */
+    private void streamFields(
+        final SourceObject sourceObject,
+        final ObjectStep objectStep)
+    throws ObjectTransformerException, IOException
+    {
+        if (sourceObject.references == null)
+        {
+            // objects without $path share the source object of their parent
+            sourceObject.references = new HashMap<String, Integer>();
+            sourceObject.readAll = !addReferences(objectStep.children, sourceObject.references);
+        }
+
+        if (sourceObject.readAll)
+        {
+            // the whole source object is used by the map
+            sourceObject.read();
+            ObjectNode targetObject = mapper.createObjectNode();
+            context.sourceNode = sourceObject.node;
+            transformer.transformFields(sourceObject.node, objectStep, targetObject, context);
+            writeFields(targetObject);
+            return;
+        }
+
+        for (Step step : objectStep.children)
+        {
+            context.transformNodeFieldName = step.fieldName;
+            context.sourceNode = sourceObject.node;
+
+            List<String> fieldNames = null;
+            Step streamedStep = null;
+            if (step.kind() == Kind.OBJECT)
+            {
+                fieldNames = TransformPlan.getFieldNames(((ObjectStep)step).path);
+                streamedStep = step;
+            }
+            else if (step.kind() == Kind.STRUCTURE && ((StructureStep)step).structure != null)
+            {
+                StructureStep structureStep = (StructureStep)step;
+                fieldNames = TransformPlan.getFieldNames(structureStep.path);
+                streamedStep = structureStep.structure;
+                if (fieldNames != null && streamedStep.kind() == Kind.OBJECT)
+                {
+                    // the structure object may move the source again
+                    List<String> structureFieldNames = TransformPlan.getFieldNames(((ObjectStep)streamedStep).path);
+                    if (structureFieldNames != null)
+                    {
+                        fieldNames = new ArrayList<String>(fieldNames);
+                        fieldNames.addAll(structureFieldNames);
+                    }
+                    else
+                    {
+                        fieldNames = null;
+                    }
+                }
+                else if (fieldNames != null && fieldNames.isEmpty())
+                {
+                    // array built from the source object itself
+                    fieldNames = null;
+                }
+            }
+
+            if (fieldNames != null && streamedStep.kind() == Kind.OBJECT)
+            {
+                generator.writeFieldName(step.fieldName);
+                int sourceNodePathLength = appendPath(step);
+                streamObject(sourceObject, fieldNames, 0, (ObjectStep)streamedStep);
+                context.sourceNodePath.setLength(sourceNodePathLength);
+            }
+            else if (fieldNames != null && streamedStep.kind() == Kind.ARRAY)
+            {
+                generator.writeFieldName(step.fieldName);
+                int sourceNodePathLength = appendPath(step);
+                streamArray(sourceObject, fieldNames, 0, (ArrayStep)streamedStep);
+                context.sourceNodePath.setLength(sourceNodePathLength);
+            }
+            else if (step.kind() == Kind.LITERAL)
+            {
+                generator.writeFieldName(step.fieldName);
+                mapper.writeTree(generator, step.transformNode);
+            }
+            else
+            {
+                // map the step from the source fields kept in memory
+                Map<String, Integer> stepReferences = new HashMap<String, Integer>();
+                addReferences(step, stepReferences);
+                for (String fieldName : stepReferences.keySet())
+                {
+                    sourceObject.read(fieldName);
+                }
+
+                ObjectNode targetObject = mapper.createObjectNode();
+                transformer.transformStep(sourceObject.node, step, targetObject, context);
+                writeFields(targetObject);
+            }
+        }
+    }
+
+    private void writeFields(final ObjectNode targetObject)
+    throws IOException
+    {
+        Iterator<Map.Entry<String, JsonNode>> fields = targetObject.fields();
+        while (fields.hasNext())
+        {
+            Map.Entry<String, JsonNode> field = fields.next();
+            generator.writeFieldName(field.getKey());
+            mapper.writeTree(generator, field.getValue());
+        }
+    }
+
+    /**
+     * Follow the remaining field names of a $path from a node in memory.
+     */
+    private JsonNode resolveFields(
+        final JsonNode sourceNode,
+        final List<String> fieldNames,
+        final int fieldIndex)
+    throws ObjectTransformerException
+    {
+        JsonNode resultNode = sourceNode;
+        for (int i = fieldIndex; i < fieldNames.size(); i++)
+        {
+            if (resultNode.isObject())
+            {
+                resultNode = resultNode.path(fieldNames.get(i));
+            }
+            else if (!resultNode.isArray()
+                && Boolean.valueOf(ObjectTransformerProperty.getProperty(
+                    transformer.properties,
+                    ObjectTransformerProperty.EXCEPTION_ON_PATH_RESOLUTION)))
+            {
+                throw new ObjectTransformerException(
+                    "Cannot resolve path " + fieldNames
+                    + " for source node " + sourceNode.toString());
+            }
+        }
+
+        return resultNode;
+    }
+
+    /**
+     * Count the fields of the source object used by the steps.
+     * Returns false when a step uses the whole source object.
+     */
+    private static boolean addReferences(
+        final List<Step> steps,
+        final Map<String, Integer> references)
+    {
+        boolean result = true;
+        for (Step step : steps)
+        {
+            result &= addReferences(step, references);
+        }
+
+        return result;
+    }
+
+    private static boolean addReferences(
+        final Step step,
+        final Map<String, Integer> references)
+    {
+        switch (step.kind())
+        {
+            case OBJECT:
+                ObjectStep objectStep = (ObjectStep)step;
+                if (objectStep.path != null)
+                {
+                    return addReference(objectStep.path.getFirstFieldName(), references);
+                }
+                return addReferences(objectStep.children, references);
+            case STRUCTURE:
+                StructureStep structureStep = (StructureStep)step;
+                if (structureStep.path != null)
+                {
+                    return addReference(structureStep.path.getFirstFieldName(), references);
+                }
+                return structureStep.structure == null || addReferences(structureStep.structure, references);
+            case ARRAY:
+                // the source object is not an array, each element is mapped from it
+                return addReferences(((ArrayStep)step).elements, references);
+            case VALUE:
+            case EXPRESSION:
+                if (step.transformNode.has(ObjectTransformer.VALUE)
+                    && step.transformNode.get(ObjectTransformer.VALUE).asText().equals(ObjectTransformer.PATH_DOT))
+                {
+                    return false;
+                }
+                return addValueReferences(step.transformNode, references);
+            default:
+                return true;
+        }
+    }
+
+    private static boolean addValueReferences(
+        final JsonNode transformNode,
+        final Map<String, Integer> references)
+    {
+        boolean result = true;
+        Iterator<Map.Entry<String, JsonNode>> fields = transformNode.fields();
+        while (fields.hasNext())
+        {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode fieldValue = field.getValue();
+            if (field.getKey().equals(ObjectTransformer.VALUE) && fieldValue.isTextual())
+            {
+                // $value of the step or of a function argument
+                if (!fieldValue.asText().equals(ObjectTransformer.PATH_DOT))
+                {
+                    result &= addReference(
+                        PathExpression.compile(fieldValue.asText()).getFirstFieldName(), references);
+                }
+            }
+            else if (fieldValue.isContainerNode())
+            {
+                result &= addValueReferences(fieldValue, references);
+            }
+        }
+
+        for (JsonNode elementNode : transformNode)
+        {
+            if (transformNode.isArray() && elementNode.isContainerNode())
+            {
+                result &= addValueReferences(elementNode, references);
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean addReference(
+        final String fieldName,
+        final Map<String, Integer> references)
+    {
+        if (fieldName == null)
+        {
+            // path depends on the array index
+            return false;
+        }
+
+        Integer count = references.get(fieldName);
+        references.put(fieldName, count == null ? 1 : count + 1);
+        return true;
+    }
+
+    /**
+     * A source object read forward only.
+     */
+    private final class SourceObject
+    {
+        /** The fields read so far */
+        final ObjectNode node;
+
+        /** The number of steps using each field, null if the object is only a step of a $path */
+        Map<String, Integer> references;
+
+        /** Keep every field of the object */
+        boolean readAll;
+
+        /** The field name of the value the parser is on, not read yet */
+        private String openFieldName;
+
+        /** End of the object reached */
+        private boolean ended;
+
+        /** The parser is on the start of the object */
+        SourceObject()
+        {
+            node = mapper.createObjectNode();
+        }
+
+        /**
+         * Move the parser to the value of a field used by one step only, the value can then be streamed.
+         * Returns the token of the value or null if the value must be read instead.
+         */
+        JsonToken open(final String fieldName)
+        throws IOException
+        {
+            if (node.has(fieldName) || (references != null && references.get(fieldName) != null
+                && references.get(fieldName) > 1))
+            {
+                return null;
+            }
+
+            String nextFieldName;
+            while ((nextFieldName = nextField()) != null)
+            {
+                if (nextFieldName.equals(fieldName))
+                {
+                    openFieldName = fieldName;
+                    return parser.getCurrentToken();
+                }
+                keepOrSkip(nextFieldName);
+            }
+
+            return null;
+        }
+
+        /**
+         * The value opened was streamed.
+         */
+        void close()
+        {
+            openFieldName = null;
+        }
+
+        /**
+         * Read the value of a field.
+         */
+        JsonNode read(final String fieldName)
+        throws IOException
+        {
+            if (fieldName.equals(openFieldName))
+            {
+                openFieldName = null;
+                node.set(fieldName, mapper.readTree(parser));
+            }
+
+            String nextFieldName;
+            while (!node.has(fieldName) && (nextFieldName = nextField()) != null)
+            {
+                if (nextFieldName.equals(fieldName))
+                {
+                    node.set(fieldName, mapper.readTree(parser));
+                }
+                else
+                {
+                    keepOrSkip(nextFieldName);
+                }
+            }
+
+            return node.path(fieldName);
+        }
+
+        /**
+         * Read all remaining fields.
+         */
+        void read()
+        throws IOException
+        {
+            String nextFieldName;
+            while ((nextFieldName = nextField()) != null)
+            {
+                node.set(nextFieldName, mapper.readTree(parser));
+            }
+        }
+
+        /**
+         * Skip all remaining fields.
+         */
+        void skip()
+        throws IOException
+        {
+            if (openFieldName != null)
+            {
+                parser.skipChildren();
+                openFieldName = null;
+            }
+            while (nextField() != null)
+            {
+                parser.skipChildren();
+            }
+        }
+
+        private void keepOrSkip(final String fieldName)
+        throws IOException
+        {
+            if (readAll || (references != null && references.containsKey(fieldName)))
+            {
+                node.set(fieldName, mapper.readTree(parser));
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+
+        /**
+         * Move the parser to the value of the next field, returns the field name or null at the end of the object.
+         */
+        private String nextField()
+        throws IOException
+        {
+            if (ended)
+            {
+                return null;
+            }
+            if (parser.nextToken() != JsonToken.FIELD_NAME)
+            {
+                ended = true;
+                return null;
+            }
+
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            return fieldName;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.pros.jsontransform.TransformPlan.ConstraintStep;
+import com.pros.jsontransform.filter.ArrayFilter;
+import com.pros.jsontransform.filter.ArrayFilterMatcher;
+
+/**
+ * The state of one transformation.
+ *
+ * A context is created for each call to ObjectTransformer.transform and is
+ * passed through the traversal, so that one ObjectTransformer can serve
+ * many threads. A context must not be shared between threads.
+ */
+public class TransformContext
+{
+    /** The transformer running the transformation */
+    private final ObjectTransformer transformer;
+
+    /** Handlers of the plugin version used by the transformation */
+    HandlerRegistry handlers;
+
+    /** The root node of the source JSON */
+    JsonNode sourceRoot;
+
+    /** The root node of the target JSON */
+    ObjectNode targetRoot;
+
+    /** The processed node of the source JSON */
+    JsonNode sourceNode;
+
+    /** The processed node of the transform JSON */
+    JsonNode transformNode;
+
+    /** The name of the transform node field being traversed */
+    String transformNodeFieldName;
+
+    /** The path to the source node computed by $path */
+    final StringBuilder sourceNodePath;
+
+    /** Keep track of node parents in the source tree */
+    List<JsonNode> sourceNodeParents;
+
+    /** Keep track of the index to visited elements in arrays in the source tree */
+    List<Integer> sourceArrayIndexes;
+
+    /** The report of constraint violations, null to stop at the first violation */
+    ValidationReport validationReport;
+
+    /** Source array elements indexed by field value, built by fieldname==value paths, shared with forks */
+    private final Map<JsonNode, Map<String, Map<String, JsonNode>>> sourceArrayFieldIndexes;
+
+    /** $constraints arrays of transform nodes outside the plan, compiled on first use */
+    private Map<JsonNode, List<ConstraintStep>> transformNodeConstraints;
+
+    /** Built-in filter nodes evaluated outside the plan, compiled on first use */
+    private Map<JsonNode, ArrayFilterMatcher> filterMatchers;
+
+    public TransformContext(
+        final ObjectTransformer transformer,
+        final JsonNode sourceRoot)
+    {
+        this.transformer = transformer;
+        this.sourceArrayFieldIndexes = new IdentityHashMap<JsonNode, Map<String, Map<String, JsonNode>>>(4);
+        this.handlers = transformer.getHandlers();
+        this.sourceNodePath = new StringBuilder();
+        this.sourceNodeParents = new ArrayList<JsonNode>();
+        this.sourceArrayIndexes = new ArrayList<Integer>();
+
+        reset(sourceRoot);
+    }
+
+    /**
+     * Prepare the context for a new transformation, so that it can be reused for many sources.
+     */
+    void reset(final JsonNode sourceRoot)
+    {
+        this.sourceRoot = sourceRoot;
+        this.sourceNode = sourceRoot;
+        this.targetRoot = transformer.mapper.createObjectNode();
+        this.transformNode = null;
+
+        transformNodeFieldName = "";
+        sourceNodePath.setLength(0);
+        sourceNodeParents.clear();
+        sourceArrayIndexes.clear();
+        sourceArrayFieldIndexes.clear();
+        transformNodeConstraints = null;
+        filterMatchers = null;
+
+        // always have root as parent
+        sourceNodeParents.add(sourceRoot);
+    }
+
+    /**
+     * Copy the context for a transformation running in another thread,
+     * the copy starts at the same source node and has its own traversal state.
+     */
+    TransformContext fork()
+    {
+        return new TransformContext(this);
+    }
+
+    private TransformContext(final TransformContext parent)
+    {
+        this.transformer = parent.transformer;
+        this.handlers = parent.handlers;
+        this.validationReport = parent.validationReport;
+        this.sourceRoot = parent.sourceRoot;
+        this.targetRoot = parent.targetRoot;
+        this.sourceNode = parent.sourceNode;
+        this.transformNode = parent.transformNode;
+        this.transformNodeFieldName = parent.transformNodeFieldName;
+        this.sourceNodePath = new StringBuilder(parent.sourceNodePath);
+        this.sourceNodeParents = new ArrayList<JsonNode>(parent.sourceNodeParents);
+        this.sourceArrayIndexes = new ArrayList<Integer>(parent.sourceArrayIndexes);
+
+        // forks look up the same source, an index built by one chunk serves all of them,
+        // the map is created with the parent so every fork locks the same one
+        this.sourceArrayFieldIndexes = parent.sourceArrayFieldIndexes;
+    }
+
+    public ObjectTransformer getTransformer()
+    {
+        return transformer;
+    }
+
+    /**
+     * The version of the plugins used by the transformation.
+     */
+    public long getPluginVersion()
+    {
+        return handlers.version;
+    }
+
+    public Logger getLogger()
+    {
+        return transformer.getLogger();
+    }
+
+    public JsonNode getSourceRoot()
+    {
+        return sourceRoot;
+    }
+
+    public List<Integer> getSourceArrayIndexes()
+    {
+        return sourceArrayIndexes;
+    }
+
+    public int getIndexOfSourceArray()
+    {
+        return sourceArrayIndexes.get(sourceArrayIndexes.size() - 1);
+    }
+
+    public JsonNode getParentNode()
+    {
+        return sourceNodeParents.get(sourceNodeParents.size() - 1);
+    }
+
+    public JsonNode getSourceNode()
+    {
+        return sourceNode;
+    }
+
+    public String getTransformNodeFieldName()
+    {
+        return transformNodeFieldName;
+    }
+
+    /**
+     * The path of the current source node, e.g. |lines|3
+     */
+    public String getSourceNodePath()
+    {
+        return sourceNodePath.toString();
+    }
+
+    /**
+     * Get the elements of a source array indexed by the text value of a field.
+     * The index is built on first use and kept for the duration of the transformation,
+     * the first element wins when values are duplicated. The indexes are shared with forked
+     * contexts and are not modified once built.
+     */
+    Map<String, JsonNode> getArrayIndex(
+        final JsonNode arrayNode,
+        final String fieldName)
+    {
+        synchronized (sourceArrayFieldIndexes)
+        {
+            return getArrayIndex(sourceArrayFieldIndexes, arrayNode, fieldName);
+        }
+    }
+
+    private static Map<String, JsonNode> getArrayIndex(
+        final Map<JsonNode, Map<String, Map<String, JsonNode>>> sourceArrayFieldIndexes,
+        final JsonNode arrayNode,
+        final String fieldName)
+    {
+        Map<String, Map<String, JsonNode>> arrayIndexes = sourceArrayFieldIndexes.get(arrayNode);
+        if (arrayIndexes == null)
+        {
+            arrayIndexes = new HashMap<String, Map<String, JsonNode>>();
+            sourceArrayFieldIndexes.put(arrayNode, arrayIndexes);
+        }
+
+        Map<String, JsonNode> arrayIndex = arrayIndexes.get(fieldName);
+        if (arrayIndex == null)
+        {
+            arrayIndex = new HashMap<String, JsonNode>(arrayNode.size() * 2);
+            for (JsonNode elementNode : arrayNode)
+            {
+                JsonNode fieldNode = elementNode.path(fieldName);
+                if (fieldNode.isValueNode() && !arrayIndex.containsKey(fieldNode.asText()))
+                {
+                    arrayIndex.put(fieldNode.asText(), elementNode);
+                }
+            }
+            arrayIndexes.put(fieldName, arrayIndex);
+        }
+
+        return arrayIndex;
+    }
+
+    /**
+     * Get the compiled constraints of a $constraints array, e.g. of a transform node
+     * passed to transformExpression by a plugin. They are kept for the duration of the transformation.
+     */
+    List<ConstraintStep> getConstraints(final JsonNode constraintsArray)
+    throws ObjectTransformerException
+    {
+        if (transformNodeConstraints == null)
+        {
+            transformNodeConstraints = new IdentityHashMap<JsonNode, List<ConstraintStep>>();
+        }
+
+        List<ConstraintStep> constraints = transformNodeConstraints.get(constraintsArray);
+        if (constraints == null)
+        {
+            constraints = TransformPlan.compileConstraints(constraintsArray);
+            transformNodeConstraints.put(constraintsArray, constraints);
+        }
+
+        return constraints;
+    }
+
+    /**
+     * Get the compiled matcher of a built-in filter node, e.g. of a filter evaluated by a plugin,
+     * so the arguments are not compiled again for each element. It is kept for the duration of the transformation.
+     */
+    public ArrayFilterMatcher getFilterMatcher(
+        final ArrayFilter filter,
+        final JsonNode filterNode)
+    throws ObjectTransformerException
+    {
+        if (filterMatchers == null)
+        {
+            filterMatchers = new IdentityHashMap<JsonNode, ArrayFilterMatcher>();
+        }
+
+        ArrayFilterMatcher matcher = filterMatchers.get(filterNode);
+        if (matcher == null)
+        {
+            matcher = filter.compile(filterNode.elements().next());
+            filterMatchers.put(filterNode, matcher);
+        }
+
+        return matcher;
+    }
+
+    public JsonNode transformValueNode(
+        final JsonNode sourceNode,
+        final JsonNode transformNode)
+    throws ObjectTransformerException
+    {
+        return transformer.transformValueNode(sourceNode, transformNode, this);
+    }
+
+    public JsonNode transformExpression(
+        final JsonNode sourceNode,
+        final JsonNode transformNode)
+    throws ObjectTransformerException
+    {
+        return transformer.transformExpression(sourceNode, transformNode, this);
+    }
+}
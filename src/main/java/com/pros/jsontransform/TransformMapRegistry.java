@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compiled transform maps, kept by map id or by the SHA-256 hash of the map JSON.
+ *
+ * Maps are parsed and compiled once. Maps registered by id are kept until removed,
+ * at most maxSize maps are kept by hash and the least recently used one is evicted
+ * first. A registry can be shared by all threads.
+ */
+public final class TransformMapRegistry
+{
+    private final ObjectMapper mapper;
+    private final int maxSize;
+
+    /** Plans by hash in least recently used order, guarded by itself */
+    private final LinkedHashMap<String, TransformPlan> plans;
+
+    /** Plans by map id, never evicted, guarded by plans */
+    private final Map<String, TransformPlan> registeredPlans = new HashMap<String, TransformPlan>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    public TransformMapRegistry(
+        final ObjectMapper mapper,
+        final int maxSize)
+    {
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("Transform map registry size must be at least 1");
+        }
+        this.mapper = mapper;
+        this.maxSize = maxSize;
+        this.plans = new LinkedHashMap<String, TransformPlan>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, TransformPlan> eldest)
+            {
+                if (size() > TransformMapRegistry.this.maxSize)
+                {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Compile a transform map and keep it under an id, replacing the map of the same id.
+     */
+    public TransformPlan register(
+        final String mapId,
+        final String transformJson)
+    throws ObjectTransformerException, IOException
+    {
+        TransformPlan plan = TransformPlan.compile(mapper.readTree(transformJson));
+        synchronized (plans)
+        {
+            registeredPlans.put(mapId, plan);
+        }
+
+        return plan;
+    }
+
+    /**
+     * Get the plan registered under an id.
+     */
+    public TransformPlan get(final String mapId)
+    throws ObjectTransformerException
+    {
+        TransformPlan plan = lookUp(registeredPlans, mapId);
+        if (plan == null)
+        {
+            throw new ObjectTransformerException("Unknown transform map id " + mapId);
+        }
+
+        return plan;
+    }
+
+    /**
+     * Get the plan of a transform map JSON, compiled on first use.
+     */
+    public TransformPlan getOrCompile(final String transformJson)
+    throws ObjectTransformerException, IOException
+    {
+        String key = hash(transformJson);
+        TransformPlan plan = lookUp(plans, key);
+        if (plan == null)
+        {
+            // compile outside the lock, a map compiled twice by racing threads is harmless
+            plan = TransformPlan.compile(mapper.readTree(transformJson));
+            synchronized (plans)
+            {
+                plans.put(key, plan);
+            }
+        }
+
+        return plan;
+    }
+
+    public void remove(final String mapId)
+    {
+        synchronized (plans)
+        {
+            registeredPlans.remove(mapId);
+        }
+    }
+
+    public void clear()
+    {
+        synchronized (plans)
+        {
+            plans.clear();
+            registeredPlans.clear();
+        }
+    }
+
+    /** Maps registered by id and maps kept by hash */
+    public int size()
+    {
+        synchronized (plans)
+        {
+            return registeredPlans.size() + plans.size();
+        }
+    }
+
+    /** Maximum number of maps kept by hash */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /** Lookups that found a compiled map */
+    public long getHits()
+    {
+        synchronized (plans)
+        {
+            return hits;
+        }
+    }
+
+    /** Lookups that did not find a compiled map */
+    public long getMisses()
+    {
+        synchronized (plans)
+        {
+            return misses;
+        }
+    }
+
+    /** Maps removed to stay within the maximum size */
+    public long getEvictions()
+    {
+        synchronized (plans)
+        {
+            return evictions;
+        }
+    }
+
+    private TransformPlan lookUp(
+        final Map<String, TransformPlan> keyPlans,
+        final String key)
+    {
+        synchronized (plans)
+        {
+            TransformPlan plan = keyPlans.get(key);
+            if (plan == null)
+            {
+                misses++;
+            }
+            else
+            {
+                hits++;
+            }
+            return plan;
+        }
+    }
+
+    private static String hash(final String transformJson)
+    {
+        byte[] digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256").digest(transformJson.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(ex);
+        }
+
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++)
+        {
+            hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+
+        return new String(hex);
+    }
+}
@@ -0,0 +1,859 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pros.jsontransform.PathExpression.SegmentType;
+import com.pros.jsontransform.constraint.Constraint;
+import com.pros.jsontransform.constraint.ConstraintValidator;
+import com.pros.jsontransform.filter.ArrayFilter;
+import com.pros.jsontransform.filter.ArrayFilterContains;
+import com.pros.jsontransform.filter.ArrayFilterMatcher;
+
+/**
+ * A transform map compiled into a tree of typed plan steps.
+ *
+ * The map is interpreted once when the plan is compiled, the plan is then
+ * executed by ObjectTransformer against any number of source JSON trees.
+ * A plan is immutable and can be reused.
+ */
+public final class TransformPlan
+{
+    /** The transform map the plan was compiled from */
+    private final JsonNode transformRoot;
+
+    /** The root object step */
+    private final ObjectStep root;
+
+    /** Minimum number of $contains filters of the same $value matched by one automaton */
+    static final int CONTAINS_GROUP_MIN = 2;
+
+    private TransformPlan(final JsonNode transformRoot)
+    throws ObjectTransformerException
+    {
+        this.transformRoot = transformRoot;
+        this.root = compileObject(null, transformRoot);
+    }
+
+    /**
+     * Compile a transform map into a plan.
+     */
+    public static TransformPlan compile(final JsonNode transformRoot)
+    throws ObjectTransformerException
+    {
+        if (transformRoot == null || !transformRoot.isObject())
+        {
+            throw new ObjectTransformerException("Transform map must be a JSON object");
+        }
+
+        return new TransformPlan(transformRoot);
+    }
+
+    public JsonNode getTransformRoot()
+    {
+        return transformRoot;
+    }
+
+    ObjectStep getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Check that the plan can be executed on a streamed source, see ObjectTransformer.transformStream.
+     * A streamed source is read forward only and the target is written as it is built,
+     * maps that move back in the source or change a target node already written are rejected.
+     */
+    public void checkStreamable()
+    throws ObjectTransformerException
+    {
+        checkStreamableNode(transformRoot);
+        checkStreamableArrays(root);
+    }
+
+    private static void checkStreamableNode(
+        final JsonNode transformNode)
+    throws ObjectTransformerException
+    {
+        Iterator<Map.Entry<String, JsonNode>> fields = transformNode.fields();
+        while (fields.hasNext())
+        {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode fieldValue = field.getValue();
+            if ((field.getKey().equals(ObjectTransformer.PATH) || field.getKey().equals(ObjectTransformer.VALUE))
+                && fieldValue.isTextual())
+            {
+                PathExpression path = PathExpression.compile(fieldValue.asText());
+                if (path.hasSegment(SegmentType.PARENT))
+                {
+                    throw new ObjectTransformerException(
+                        "Cannot stream transform map, path " + path.getText()
+                        + " moves to a parent node which needs the whole source in memory");
+                }
+                if (path.hasSegment(SegmentType.ROOT))
+                {
+                    throw new ObjectTransformerException(
+                        "Cannot stream transform map, path " + path.getText()
+                        + " starts from the source root which needs the whole source in memory");
+                }
+            }
+            else if (field.getKey().equals(ObjectTransformer.APPEND) && !fieldValue.asText().isEmpty())
+            {
+                throw new ObjectTransformerException(
+                    "Cannot stream transform map, $append to " + fieldValue.asText()
+                    + " changes a target node that is already written");
+            }
+            else if (fieldValue.isContainerNode())
+            {
+                checkStreamableNode(fieldValue);
+            }
+        }
+
+        if (transformNode.isArray())
+        {
+            for (JsonNode elementNode : transformNode)
+            {
+                checkStreamableNode(elementNode);
+            }
+        }
+    }
+
+    private static void checkStreamableArrays(
+        final ObjectStep objectStep)
+    throws ObjectTransformerException
+    {
+        // follow the steps streamed by StreamingTransform
+        for (Step step : objectStep.children)
+        {
+            if (step.kind() == Kind.OBJECT && getFieldNames(((ObjectStep)step).path) != null)
+            {
+                checkStreamableArrays((ObjectStep)step);
+            }
+            else if (step.kind() == Kind.STRUCTURE)
+            {
+                StructureStep structureStep = (StructureStep)step;
+                Step structure = structureStep.structure;
+                if (structure == null || getFieldNames(structureStep.path) == null)
+                {
+                    continue;
+                }
+                if (structure.kind() == Kind.OBJECT && getFieldNames(((ObjectStep)structure).path) != null)
+                {
+                    checkStreamableArrays((ObjectStep)structure);
+                }
+                else if (structure.kind() == Kind.ARRAY
+                    && structureStep.path != null
+                    && ((ArrayStep)structure).sortNode != null)
+                {
+                    throw new ObjectTransformerException(
+                        "Cannot stream transform map, $sort of " + step.fieldName
+                        + " needs the whole target array in memory");
+                }
+            }
+        }
+    }
+
+    /**
+     * The field names of a $path directive, empty if there is no path
+     * and null if the path is not made of field names only.
+     */
+    static List<String> getFieldNames(final PathExpression path)
+    {
+        if (path == null)
+        {
+            return Collections.emptyList();
+        }
+
+        return path.getFieldNames();
+    }
+
+    private static ObjectStep compileObject(
+        final String fieldName,
+        final JsonNode transformNode)
+    throws ObjectTransformerException
+    {
+        List<Step> children = new ArrayList<Step>();
+        Iterator<String> fieldNames = transformNode.fieldNames();
+        while (fieldNames.hasNext())
+        {
+            String childFieldName = fieldNames.next();
+            if (childFieldName.equalsIgnoreCase(ObjectTransformer.COMMENT))
+            {
+                // ignore $comment nodes
+                continue;
+            }
+
+            Step child = compileField(childFieldName, transformNode.get(childFieldName));
+            if (child != null)
+            {
+                children.add(child);
+            }
+        }
+
+        return new ObjectStep(fieldName, transformNode, children);
+    }
+
+    private static Step compileField(
+        final String fieldName,
+        final JsonNode transformChildNode)
+    throws ObjectTransformerException
+    {
+        Step step = null;
+        if (transformChildNode.get(ObjectTransformer.VALUE) != null
+            || transformChildNode.get(ObjectTransformer.EXPRESSION) != null)
+        {
+            // mapping value from transform map
+            step = compileExpression(fieldName, transformChildNode);
+        }
+        else if (transformChildNode.get(ObjectTransformer.STRUCTURE) != null)
+        {
+            step = compileStructure(fieldName, transformChildNode);
+        }
+        else if (transformChildNode.isObject())
+        {
+            step = compileObject(fieldName, transformChildNode);
+        }
+        else if (transformChildNode.isArray())
+        {
+            step = compileArray(fieldName, transformChildNode, transformChildNode);
+        }
+        else if (!fieldName.startsWith("$"))
+        {
+            // simple JSON field, copy from transform map
+            step = new LiteralStep(fieldName, transformChildNode);
+        }
+
+        return step;
+    }
+
+    private static Step compileExpression(
+        final String fieldName,
+        final JsonNode transformNode)
+    throws ObjectTransformerException
+    {
+        if (transformNode.get(ObjectTransformer.EXPRESSION) == null
+            && transformNode.get(ObjectTransformer.CONSTRAINTS) == null)
+        {
+            // plain copy of a source value
+            return new ValueStep(fieldName, transformNode);
+        }
+
+        return new ExpressionStep(fieldName, transformNode);
+    }
+
+    private static Step compileStructure(
+        final String fieldName,
+        final JsonNode transformNode)
+    throws ObjectTransformerException
+    {
+        Step structure = null;
+        JsonNode structureNode = transformNode.get(ObjectTransformer.STRUCTURE);
+        if (structureNode.isObject())
+        {
+            structure = compileObject(fieldName, structureNode);
+        }
+        else if (structureNode.isArray())
+        {
+            structure = compileArray(fieldName, transformNode, structureNode);
+        }
+
+        return new StructureStep(fieldName, transformNode, structure);
+    }
+
+    private static ArrayStep compileArray(
+        final String fieldName,
+        final JsonNode transformNode,
+        final JsonNode transformArray)
+    throws ObjectTransformerException
+    {
+        // the first element is the model of elements created from a source array
+        Step elementModel = compileElement(transformArray.path(0));
+        if (elementModel == null)
+        {
+            elementModel = compileObject(null, transformArray.path(0));
+        }
+
+        // each element is mapped when the source is not an array
+        List<Step> elements = new ArrayList<Step>();
+        for (JsonNode childElementNode : transformArray)
+        {
+            Step element = compileElement(childElementNode);
+            if (element == null && !childElementNode.isArray())
+            {
+                // copy map value to target
+                element = new LiteralStep(null, childElementNode);
+            }
+            if (element != null)
+            {
+                elements.add(element);
+            }
+        }
+
+        return new ArrayStep(
+            fieldName,
+            transformNode,
+            elementModel,
+            elements,
+            compileFilters(transformNode.path(ObjectTransformer.FILTER_INCLUDE)),
+            compileFilters(transformNode.path(ObjectTransformer.FILTER_EXCLUDE)),
+            compileGroupKeys(transformNode.get(ObjectTransformer.GROUP_BY)));
+    }
+
+    /**
+     * The keys of $groupBy, one key or a list, e.g. [{"$value":"region"}, {"$value":"year"}].
+     * Null if there is no $groupBy.
+     */
+    private static List<JsonNode> compileGroupKeys(
+        final JsonNode groupByNode)
+    throws ObjectTransformerException
+    {
+        if (groupByNode == null)
+        {
+            return null;
+        }
+
+        List<JsonNode> keyNodes = new ArrayList<JsonNode>();
+        if (groupByNode.isArray())
+        {
+            for (JsonNode keyNode : groupByNode)
+            {
+                keyNodes.add(keyNode);
+            }
+        }
+        else
+        {
+            keyNodes.add(groupByNode);
+        }
+
+        for (JsonNode keyNode : keyNodes)
+        {
+            if (!keyNode.isObject())
+            {
+                throw new ObjectTransformerException(
+                    "Wrong " + ObjectTransformer.GROUP_BY + " directive " + groupByNode.toString()
+                    + ", keys are transform nodes, e.g. {\"$value\":\"region\"}");
+            }
+        }
+        if (keyNodes.isEmpty())
+        {
+            throw new ObjectTransformerException(
+                "Wrong " + ObjectTransformer.GROUP_BY + " directive " + groupByNode.toString() + ", no key");
+        }
+
+        return Collections.unmodifiableList(keyNodes);
+    }
+
+    /**
+     * Compile the constraints of $constraints, null if there are none.
+     */
+    static List<ConstraintStep> compileConstraints(
+        final JsonNode constraintsNode)
+    throws ObjectTransformerException
+    {
+        if (!constraintsNode.isArray())
+        {
+            return null;
+        }
+
+        List<ConstraintStep> constraints = new ArrayList<ConstraintStep>(constraintsNode.size());
+        for (JsonNode constraintNode : constraintsNode)
+        {
+            constraints.add(new ConstraintStep(constraintNode));
+        }
+
+        return Collections.unmodifiableList(constraints);
+    }
+
+    /**
+     * Compile the filters of $include or $exclude, null if there are none.
+     */
+    private static List<FilterStep> compileFilters(
+        final JsonNode filtersNode)
+    throws ObjectTransformerException
+    {
+        if (!filtersNode.isArray())
+        {
+            return null;
+        }
+
+        // $contains filters of the same $value are matched together, see groupContainsFilters
+        List<FilterStep> filters = new ArrayList<FilterStep>(filtersNode.size());
+        Map<String, List<JsonNode>> containsGroups = new LinkedHashMap<String, List<JsonNode>>();
+        for (JsonNode filterNode : filtersNode)
+        {
+            FilterStep filter = new FilterStep(filterNode);
+            JsonNode filterArguments = filterNode.get(filter.name);
+            if (filter.builtIn == ArrayFilter.$CONTAINS && filterArguments.isObject())
+            {
+                String valueKey = String.valueOf(filterArguments.get(ObjectTransformer.VALUE));
+                List<JsonNode> group = containsGroups.get(valueKey);
+                if (group == null)
+                {
+                    group = new ArrayList<JsonNode>();
+                    containsGroups.put(valueKey, group);
+                }
+                group.add(filterNode);
+            }
+            filters.add(filter);
+        }
+
+        return Collections.unmodifiableList(groupContainsFilters(filters, containsGroups));
+    }
+
+    /**
+     * Replace the $contains filters of each $value by a single filter when there are many,
+     * each element is then scanned once by an automaton instead of once per text.
+     * The order of filters does not change the result, any match includes or excludes.
+     */
+    private static List<FilterStep> groupContainsFilters(
+        final List<FilterStep> filters,
+        final Map<String, List<JsonNode>> containsGroups)
+    {
+        List<FilterStep> groupedFilters = new ArrayList<FilterStep>(filters.size());
+        for (FilterStep filter : filters)
+        {
+            if (filter.builtIn != ArrayFilter.$CONTAINS)
+            {
+                groupedFilters.add(filter);
+                continue;
+            }
+
+            JsonNode filterArguments = filter.filterNode.get(filter.name);
+            List<JsonNode> group = containsGroups.get(String.valueOf(filterArguments.get(ObjectTransformer.VALUE)));
+            if (group == null || group.size() < CONTAINS_GROUP_MIN)
+            {
+                groupedFilters.add(filter);
+            }
+            else if (group.get(0) == filter.filterNode)
+            {
+                // the first filter of a group takes the place of the group
+                List<JsonNode> groupArguments = new ArrayList<JsonNode>(group.size());
+                for (JsonNode filterNode : group)
+                {
+                    groupArguments.add(filterNode.elements().next());
+                }
+                groupedFilters.add(new FilterStep(
+                    filter.filterNode,
+                    filter.name,
+                    filter.builtIn,
+                    ArrayFilterContains.compile(groupArguments),
+                    filter.valuePath));
+            }
+        }
+
+        return groupedFilters;
+    }
+
+    private static Step compileElement(
+        final JsonNode childElementNode)
+    throws ObjectTransformerException
+    {
+        Step element = null;
+        if (childElementNode.has(ObjectTransformer.VALUE)
+            || childElementNode.has(ObjectTransformer.EXPRESSION))
+        {
+            // simple values
+            element = compileExpression(null, childElementNode);
+        }
+        else if (childElementNode.isObject())
+        {
+            // object values
+            element = compileObject(null, childElementNode);
+        }
+
+        // TODO nested arrays
+        return element;
+    }
+
+    private static boolean anyConstraints(final List<Step> steps)
+    {
+        for (Step step : steps)
+        {
+            if (step.hasConstraints())
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** The kinds of plan steps */
+    enum Kind
+    {
+        LITERAL,
+        VALUE,
+        EXPRESSION,
+        OBJECT,
+        STRUCTURE,
+        ARRAY
+    }
+
+    /**
+     * A step of the plan, maps one node of the transform map.
+     */
+    abstract static class Step
+    {
+        /** The target field name, null for array elements */
+        final String fieldName;
+
+        /** The transform node the step was compiled from */
+        final JsonNode transformNode;
+
+        Step(final String fieldName, final JsonNode transformNode)
+        {
+            this.fieldName = fieldName;
+            this.transformNode = transformNode;
+        }
+
+        abstract Kind kind();
+
+        /**
+         * True if the step or a step below it has $constraints.
+         */
+        boolean hasConstraints()
+        {
+            return false;
+        }
+    }
+
+    /** Copy a JSON value from the transform map */
+    static final class LiteralStep extends Step
+    {
+        LiteralStep(final String fieldName, final JsonNode transformNode)
+        {
+            super(fieldName, transformNode);
+        }
+
+        @Override
+        Kind kind()
+        {
+            return Kind.LITERAL;
+        }
+    }
+
+    /** Copy a source value found with $value */
+    static final class ValueStep extends Step
+    {
+        /** The $value directive, null if none or "." */
+        final PathExpression valuePath;
+
+        ValueStep(final String fieldName, final JsonNode transformNode)
+        {
+            super(fieldName, transformNode);
+            this.valuePath = PathExpression.compileValue(transformNode);
+        }
+
+        @Override
+        Kind kind()
+        {
+            return Kind.VALUE;
+        }
+    }
+
+    /** Transform a source value with $expression and $constraints */
+    static final class ExpressionStep extends Step
+    {
+        /** The $value directive, null if none or "." */
+        final PathExpression valuePath;
+
+        /** The $constraints, null if none */
+        final List<ConstraintStep> constraints;
+
+        ExpressionStep(final String fieldName, final JsonNode transformNode)
+        throws ObjectTransformerException
+        {
+            super(fieldName, transformNode);
+            this.valuePath = PathExpression.compileValue(transformNode);
+            this.constraints = compileConstraints(transformNode.path(ObjectTransformer.CONSTRAINTS));
+        }
+
+        @Override
+        boolean hasConstraints()
+        {
+            return constraints != null;
+        }
+
+        @Override
+        Kind kind()
+        {
+            return Kind.EXPRESSION;
+        }
+    }
+
+    /** Create a target object, optionally moving the source context with $path */
+    static final class ObjectStep extends Step
+    {
+        /** The $path directive of the object, null if none */
+        final PathExpression path;
+
+        /** The steps mapping the object fields */
+        final List<Step> children;
+
+        /** True if a child has constraints */
+        private final boolean hasConstraints;
+
+        ObjectStep(
+            final String fieldName,
+            final JsonNode transformNode,
+            final List<Step> children)
+        {
+            super(fieldName, transformNode);
+            this.path = PathExpression.compilePath(transformNode);
+            this.children = Collections.unmodifiableList(children);
+            this.hasConstraints = anyConstraints(children);
+        }
+
+        @Override
+        boolean hasConstraints()
+        {
+            return hasConstraints;
+        }
+
+        @Override
+        Kind kind()
+        {
+            return Kind.OBJECT;
+        }
+    }
+
+    /** Map a $structure object or array */
+    static final class StructureStep extends Step
+    {
+        /** The $path directive of the structure, null if none */
+        final PathExpression path;
+
+        /** The $append target field name, null if none */
+        final String append;
+
+        /** The structure content, null if $structure is neither object nor array */
+        final Step structure;
+
+        StructureStep(
+            final String fieldName,
+            final JsonNode transformNode,
+            final Step structure)
+        {
+            super(fieldName, transformNode);
+            this.path = PathExpression.compilePath(transformNode);
+            this.append = transformNode.path(ObjectTransformer.APPEND).asText();
+            this.structure = structure;
+        }
+
+        @Override
+        boolean hasConstraints()
+        {
+            return structure != null && structure.hasConstraints();
+        }
+
+        @Override
+        Kind kind()
+        {
+            return Kind.STRUCTURE;
+        }
+    }
+
+    /** A constraint of $constraints */
+    static final class ConstraintStep
+    {
+        /** The constraint as found in the transform map */
+        final JsonNode constraintNode;
+
+        /** The directive name, the first field name */
+        final String name;
+
+        /** The built-in constraint, null for plugins found by name on each transformation */
+        final Constraint builtIn;
+
+        /** The compiled arguments of a built-in constraint */
+        final ConstraintValidator validator;
+
+        ConstraintStep(final JsonNode constraintNode)
+        throws ObjectTransformerException
+        {
+            if (!constraintNode.isObject() || constraintNode.size() == 0)
+            {
+                throw new ObjectTransformerException("Constraint must be a JSON object, found " + constraintNode);
+            }
+
+            // e.g. {"$values":["a","b","c"]}
+            this.constraintNode = constraintNode;
+            this.name = constraintNode.fieldNames().next();
+            this.builtIn = Constraint.find(name);
+            this.validator = builtIn != null ? builtIn.compile(constraintNode.get(name)) : null;
+        }
+    }
+
+    /** A filter of $include or $exclude */
+    static final class FilterStep
+    {
+        /** The filter as found in the transform map */
+        final JsonNode filterNode;
+
+        /** The directive name, the first field name */
+        final String name;
+
+        /** The built-in filter, null for plugins found by name on each transformation */
+        final ArrayFilter builtIn;
+
+        /** The compiled arguments of a built-in filter */
+        final ArrayFilterMatcher matcher;
+
+        /** The $value directive of a built-in filter, null if none or "." */
+        final PathExpression valuePath;
+
+        FilterStep(final JsonNode filterNode)
+        throws ObjectTransformerException
+        {
+            if (!filterNode.isObject() || filterNode.size() == 0)
+            {
+                throw new ObjectTransformerException("Array filter must be a JSON object, found " + filterNode);
+            }
+
+            // e.g. {"$contains":{"$value":"name", "$what":"txt"}}
+            this.filterNode = filterNode;
+            this.name = filterNode.fieldNames().next();
+            this.builtIn = ArrayFilter.find(name);
+            if (builtIn != null)
+            {
+                JsonNode filterArguments = filterNode.get(name);
+                this.matcher = builtIn.compile(filterArguments);
+                this.valuePath = PathExpression.compileValue(filterArguments);
+            }
+            else
+            {
+                this.matcher = null;
+                this.valuePath = null;
+            }
+        }
+
+        FilterStep(
+            final JsonNode filterNode,
+            final String name,
+            final ArrayFilter builtIn,
+            final ArrayFilterMatcher matcher,
+            final PathExpression valuePath)
+        {
+            this.filterNode = filterNode;
+            this.name = name;
+            this.builtIn = builtIn;
+            this.matcher = matcher;
+            this.valuePath = valuePath;
+        }
+    }
+
+    /** Create a target array */
+    static final class ArrayStep extends Step
+    {
+        /** The step used as model for each element of a source array */
+        final Step elementModel;
+
+        /** The steps mapping each element when the source is not an array */
+        final List<Step> elements;
+
+        /** The $include filters, null if none */
+        final List<FilterStep> includeFilters;
+
+        /** The $exclude filters, null if none */
+        final List<FilterStep> excludeFilters;
+
+        /** The $sort directive, null if none */
+        final JsonNode sortNode;
+
+        /** The $parallel threshold, 0 if disabled and -1 if not set */
+        final int parallelThreshold;
+
+        /** The number of elements skipped by $offset, 0 if not set */
+        final int offset;
+
+        /** The maximum number of elements set by $limit, -1 if not set */
+        final int limit;
+
+        /** The keys of $groupBy, null if not set */
+        final List<JsonNode> groupKeys;
+
+        /** The $spill threshold of a streamed $groupBy, 0 if disabled and -1 if not set */
+        final int spillThreshold;
+
+        /** True if an element step has constraints */
+        private final boolean hasConstraints;
+
+        ArrayStep(
+            final String fieldName,
+            final JsonNode transformNode,
+            final Step elementModel,
+            final List<Step> elements,
+            final List<FilterStep> includeFilters,
+            final List<FilterStep> excludeFilters,
+            final List<JsonNode> groupKeys)
+        {
+            super(fieldName, transformNode);
+            this.elementModel = elementModel;
+            this.elements = Collections.unmodifiableList(elements);
+            this.includeFilters = includeFilters;
+            this.excludeFilters = excludeFilters;
+            this.groupKeys = groupKeys;
+            this.hasConstraints = elementModel.hasConstraints() || anyConstraints(elements);
+            this.sortNode = transformNode.get(ObjectTransformer.SORT);
+
+            // "$parallel":true uses the default threshold, a number sets the threshold
+            JsonNode parallelNode = transformNode.path(ObjectTransformer.PARALLEL);
+            if (parallelNode.isBoolean())
+            {
+                this.parallelThreshold = parallelNode.asBoolean() ? ObjectTransformer.PARALLEL_THRESHOLD_DEFAULT : 0;
+            }
+            else
+            {
+                this.parallelThreshold = parallelNode.isNumber() ? Math.max(parallelNode.asInt(), 0) : -1;
+            }
+
+            JsonNode offsetNode = transformNode.path(ObjectTransformer.OFFSET);
+            this.offset = offsetNode.isNumber() ? Math.max(offsetNode.asInt(), 0) : 0;
+            JsonNode limitNode = transformNode.path(ObjectTransformer.LIMIT);
+            this.limit = limitNode.isNumber() ? Math.max(limitNode.asInt(), 0) : -1;
+            JsonNode spillNode = transformNode.path(ObjectTransformer.SPILL);
+            this.spillThreshold = spillNode.isNumber() ? Math.max(spillNode.asInt(), 0) : -1;
+        }
+
+        @Override
+        boolean hasConstraints()
+        {
+            return hasConstraints;
+        }
+
+        /**
+         * The number of elements needed before $offset is applied, -1 without $limit.
+         */
+        int getKeep()
+        {
+            return limit < 0 ? -1 : (int)Math.min((long)offset + limit, Integer.MAX_VALUE);
+        }
+
+        @Override
+        Kind kind()
+        {
+            return Kind.ARRAY;
+        }
+    }
+}
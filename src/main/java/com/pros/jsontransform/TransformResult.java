@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The result of the transformation of one source in a batch,
+ * either the target JSON or the exception that stopped the transformation.
+ */
+public final class TransformResult
+{
+    /** The position of the source in the batch */
+    private final int index;
+
+    /** The target JSON, null if the transformation failed */
+    private final JsonNode target;
+
+    /** The failure, null if the transformation succeeded */
+    private final Exception exception;
+
+    TransformResult(
+        final int index,
+        final JsonNode target,
+        final Exception exception)
+    {
+        this.index = index;
+        this.target = target;
+        this.exception = exception;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public JsonNode getTarget()
+    {
+        return target;
+    }
+
+    public Exception getException()
+    {
+        return exception;
+    }
+
+    public boolean isSuccess()
+    {
+        return exception == null;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.pros.jsontransform.constraint.ConstraintViolationException;
+
+/**
+ * The constraint violations of transformations that do not stop at the first one.
+ *
+ * A report keeps at most maxViolations violations and counts all of them, it can be
+ * shared by many transformations, e.g. one per record of a file, and by the threads
+ * of parallel arrays.
+ */
+public final class ValidationReport
+{
+    /** The violations kept, in the order they are found */
+    private final List<ConstraintViolationException> violations = new ArrayList<ConstraintViolationException>();
+
+    /** Maximum number of violations kept */
+    private final int maxViolations;
+
+    /** Number of violations found, kept or not */
+    private long violationCount;
+
+    public ValidationReport()
+    {
+        this(Integer.MAX_VALUE);
+    }
+
+    public ValidationReport(final int maxViolations)
+    {
+        this.maxViolations = maxViolations;
+    }
+
+    synchronized void add(final ConstraintViolationException violation)
+    {
+        violationCount++;
+        if (violations.size() < maxViolations)
+        {
+            violations.add(violation);
+        }
+    }
+
+    public synchronized List<ConstraintViolationException> getViolations()
+    {
+        return new ArrayList<ConstraintViolationException>(violations);
+    }
+
+    public synchronized long getViolationCount()
+    {
+        return violationCount;
+    }
+
+    public synchronized boolean isValid()
+    {
+        return violationCount == 0;
+    }
+
+    public synchronized void clear()
+    {
+        violations.clear();
+        violationCount = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder text = new StringBuilder();
+        text.append(violationCount).append(" constraint violations");
+        for (ConstraintViolationException violation : violations)
+        {
+            text.append('\n').append(violation.getMessage());
+            if (violation.getSourceNodePath().length() > 0)
+            {
+                text.append(" at ").append(violation.getSourceNodePath());
+            }
+        }
+
+        return text.toString();
+    }
+}
@@ -17,13 +17,13 @@
 package com.pros.jsontransform.constraint;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 /**
  * The constraint types.
  */
-public enum Constraint
+public enum Constraint implements ConstraintHandler
 {
     $RANGE
     {
@@ -31,10 +31,16 @@ public enum Constraint
         public void validate(
             final JsonNode constraintNode,
             final JsonNode resultNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            ConstraintRange.validate(constraintNode, resultNode, transformer);
+            ConstraintRange.validate(constraintNode, resultNode, context);
+        }
+
+        @Override
+        public ConstraintValidator compile(final JsonNode constraintArguments)
+        {
+            return ConstraintRange.compile(constraintArguments);
         }
     },
     $REQUIRED
@@ -43,10 +49,16 @@ public enum Constraint
         public void validate(
             final JsonNode constraintNode,
             final JsonNode resultNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            ConstraintRequired.validate(constraintNode, resultNode, transformer);
+            ConstraintRequired.validate(constraintNode, resultNode, context);
+        }
+
+        @Override
+        public ConstraintValidator compile(final JsonNode constraintArguments)
+        {
+            return ConstraintRequired.compile(constraintArguments);
         }
     },
     $TYPE
@@ -55,10 +67,17 @@ public enum Constraint
         public void validate(
             final JsonNode constraintNode,
             final JsonNode resultNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            ConstraintType.validate(constraintNode, resultNode, context);
+        }
+
+        @Override
+        public ConstraintValidator compile(final JsonNode constraintArguments)
         throws ObjectTransformerException
         {
-            ConstraintType.validate(constraintNode, resultNode, transformer);
+            return ConstraintType.compile(constraintArguments);
         }
     },
     $VALUES
@@ -67,19 +86,48 @@ public enum Constraint
         public void validate(
             final JsonNode constraintNode,
             final JsonNode resultNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            ConstraintValues.validate(constraintNode, resultNode, transformer);
+            ConstraintValues.validate(constraintNode, resultNode, context);
+        }
+
+        @Override
+        public ConstraintValidator compile(final JsonNode constraintArguments)
+        {
+            return ConstraintValues.compile(constraintArguments);
         }
     };
 
     public abstract void validate(
         final JsonNode constraintNode,
         final JsonNode resultNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
+    throws ObjectTransformerException;
+
+    /**
+     * Compile the arguments of a constraint once, the validator tests each value.
+     */
+    public abstract ConstraintValidator compile(
+        final JsonNode constraintArguments)
     throws ObjectTransformerException;
 
+    /**
+     * The built-in constraint of a directive name ignoring case, null if none.
+     */
+    public static Constraint find(final String constraintName)
+    {
+        for (Constraint constraint : values())
+        {
+            if (constraint.name().equalsIgnoreCase(constraintName))
+            {
+                return constraint;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public String toString()
     {
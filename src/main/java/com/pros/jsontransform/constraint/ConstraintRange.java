@@ -17,55 +17,88 @@
 package com.pros.jsontransform.constraint;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class ConstraintRange
 {
     public static void validate(
         final JsonNode constraintNode,
         final JsonNode resultNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        boolean ltRangeValid = true;
-        boolean gtRangeValid = true;
-        JsonNode rangeNode = constraintNode.get(Constraint.$RANGE.toString());
-        if (rangeNode.isObject())
+        JsonNode rangeNode = constraintNode.path(Constraint.$RANGE.toString());
+        if (!compile(rangeNode).isValid(resultNode))
         {
-            JsonNode ltNode = rangeNode.path("less-than");
-            if (!ltNode.isMissingNode())
+            throw new ConstraintViolationException(Constraint.$RANGE.toString(), resultNode, context);
+        }
+    }
+
+    /**
+     * Read the bounds once, a bound applies to values of its type, number or text.
+     */
+    public static ConstraintValidator compile(
+        final JsonNode rangeNode)
+    {
+        final Bound lessThan = new Bound(rangeNode.path("less-than"));
+        final Bound greaterThan = new Bound(rangeNode.path("greater-than"));
+        return new ConstraintValidator()
+        {
+            @Override
+            public boolean isValid(final JsonNode resultNode)
             {
-                if (resultNode.isNumber() && ltNode.isNumber())
-                {
-                    ltRangeValid = resultNode.asDouble() < ltNode.asDouble();
-                }
-                else if (resultNode.isTextual() && ltNode.isTextual())
-                {
-                    ltRangeValid = resultNode.asText().compareTo(ltNode.asText()) < 0;
-                }
+                return lessThan.isAbove(resultNode) && greaterThan.isBelow(resultNode);
             }
+        };
+    }
+
+    /** A bound of the range, a number, a text or none */
+    private static final class Bound
+    {
+        private final boolean isNumber;
+        private final double number;
+        private final String text;
+
+        Bound(final JsonNode boundNode)
+        {
+            this.isNumber = boundNode.isNumber();
+            this.number = boundNode.asDouble();
+            this.text = boundNode.isTextual() ? boundNode.asText() : null;
+        }
 
-            JsonNode gtNode = rangeNode.path("greater-than");
-            if (!gtNode.isMissingNode())
+        /**
+         * True if the value is less than the bound or the bound does not apply.
+         */
+        boolean isAbove(final JsonNode resultNode)
+        {
+            if (isNumber && resultNode.isNumber())
             {
-                if (resultNode.isNumber() && gtNode.isNumber())
-                {
-                    gtRangeValid = resultNode.asDouble() > gtNode.asDouble();
-                }
-                else if (resultNode.isTextual() && gtNode.isTextual())
-                {
-                    gtRangeValid = resultNode.asText().compareTo(gtNode.asText()) > 0;
-                }
+                return resultNode.asDouble() < number;
             }
+            else if (text != null && resultNode.isTextual())
+            {
+                return resultNode.asText().compareTo(text) < 0;
+            }
+
+            return true;
         }
 
-        if (ltRangeValid == false || gtRangeValid == false)
+        /**
+         * True if the value is greater than the bound or the bound does not apply.
+         */
+        boolean isBelow(final JsonNode resultNode)
         {
-            throw new ObjectTransformerException(
-                "Constraint violation [" + Constraint.$RANGE.toString() + "]"
-                + " on transform node "
-                + transformer.getTransformNodeFieldName());
+            if (isNumber && resultNode.isNumber())
+            {
+                return resultNode.asDouble() > number;
+            }
+            else if (text != null && resultNode.isTextual())
+            {
+                return resultNode.asText().compareTo(text) > 0;
+            }
+
+            return true;
         }
     }
 }
@@ -17,24 +17,34 @@
 package com.pros.jsontransform.constraint;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class ConstraintRequired
 {
     public static void validate(
         final JsonNode constraintNode,
         final JsonNode resultNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        boolean required = constraintNode.get(Constraint.$REQUIRED.toString()).asBoolean();
-        if (required == true && resultNode.isMissingNode())
+        if (!compile(constraintNode.path(Constraint.$REQUIRED.toString())).isValid(resultNode))
         {
-            throw new ObjectTransformerException(
-                "Constraint violation [" + Constraint.$REQUIRED.toString() + "]"
-                + " on transform node "
-                + transformer.getTransformNodeFieldName());
+            throw new ConstraintViolationException(Constraint.$REQUIRED.toString(), resultNode, context);
         }
     }
+
+    public static ConstraintValidator compile(
+        final JsonNode requiredNode)
+    {
+        final boolean required = requiredNode.asBoolean();
+        return new ConstraintValidator()
+        {
+            @Override
+            public boolean isValid(final JsonNode resultNode)
+            {
+                return !required || !resultNode.isMissingNode();
+            }
+        };
+    }
 }
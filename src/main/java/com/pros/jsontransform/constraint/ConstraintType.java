@@ -17,27 +17,49 @@
 package com.pros.jsontransform.constraint;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class ConstraintType
 {
     public static void validate(
         final JsonNode constraintNode,
         final JsonNode resultNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        String type = constraintNode.get(Constraint.$TYPE.toString()).asText().toUpperCase();
-        if (!JsonNodeType.valueOf(type).isValid(resultNode))
+        if (!compile(constraintNode.path(Constraint.$TYPE.toString())).isValid(resultNode))
         {
-            throw new ObjectTransformerException(
-                "Constraint violation [" + Constraint.$TYPE.toString() + "]"
-                + " on transform node "
-                + transformer.getTransformNodeFieldName());
+            throw new ConstraintViolationException(Constraint.$TYPE.toString(), resultNode, context);
         }
     }
 
+    /**
+     * Resolve the type name once.
+     */
+    public static ConstraintValidator compile(
+        final JsonNode typeNode)
+    throws ObjectTransformerException
+    {
+        String type = typeNode.asText().toUpperCase();
+        for (final JsonNodeType nodeType : JsonNodeType.values())
+        {
+            if (nodeType.name().equals(type))
+            {
+                return new ConstraintValidator()
+                {
+                    @Override
+                    public boolean isValid(final JsonNode resultNode)
+                    {
+                        return nodeType.isValid(resultNode);
+                    }
+                };
+            }
+        }
+
+        throw new ObjectTransformerException("Unknown type " + typeNode.asText() + " of " + Constraint.$TYPE.toString());
+    }
+
     enum JsonNodeType
     {
         NUMBER  { @Override boolean isValid(JsonNode node) {return node.isNumber();} },
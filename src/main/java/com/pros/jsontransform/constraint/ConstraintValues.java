@@ -16,38 +16,49 @@
 
 package com.pros.jsontransform.constraint;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class ConstraintValues
 {
     public static void validate(
         final JsonNode constraintNode,
         final JsonNode resultNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        boolean found = false;
-        JsonNode valuesArray = constraintNode.get(Constraint.$VALUES.toString());
+        if (!compile(constraintNode.path(Constraint.$VALUES.toString())).isValid(resultNode))
+        {
+            throw new ConstraintViolationException(Constraint.$VALUES.toString(), resultNode, context);
+        }
+    }
+
+    /**
+     * Put the allowed values in a hash set, no value is allowed if they are not an array.
+     */
+    public static ConstraintValidator compile(
+        final JsonNode valuesArray)
+    {
+        final Set<JsonNode> values = new HashSet<JsonNode>();
         if (valuesArray.isArray())
         {
             for (JsonNode valueNode : valuesArray)
             {
-                if (resultNode.equals(valueNode))
-                {
-                    found = true;
-                    break;
-                }
+                values.add(valueNode);
             }
         }
 
-        if (!found)
+        return new ConstraintValidator()
         {
-            throw new ObjectTransformerException(
-                "Constraint violation [" + Constraint.$VALUES.toString() + "]"
-                + " on transform node "
-                + transformer.getTransformNodeFieldName());
-        }
+            @Override
+            public boolean isValid(final JsonNode resultNode)
+            {
+                return values.contains(resultNode);
+            }
+        };
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.constraint;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
+
+/**
+ * A value that does not satisfy a constraint.
+ *
+ * Violations are expected errors of the source data, they have no stack trace
+ * so that a transformation reporting many of them stays cheap.
+ */
+@SuppressWarnings("serial")
+public class ConstraintViolationException extends ObjectTransformerException
+{
+    private final String constraintName;
+    private final String transformNodeFieldName;
+    private final String sourceNodePath;
+    private final JsonNode valueNode;
+
+    public ConstraintViolationException(
+        final String constraintName,
+        final JsonNode valueNode,
+        final TransformContext context)
+    {
+        this(constraintName, valueNode, context,
+            "Constraint violation [" + constraintName + "]"
+            + " on transform node "
+            + context.getTransformNodeFieldName(),
+            null);
+    }
+
+    /**
+     * A violation reported by a constraint plugin with its own exception.
+     */
+    public ConstraintViolationException(
+        final String constraintName,
+        final JsonNode valueNode,
+        final TransformContext context,
+        final ObjectTransformerException cause)
+    {
+        this(constraintName, valueNode, context, cause.getMessage(), cause);
+    }
+
+    private ConstraintViolationException(
+        final String constraintName,
+        final JsonNode valueNode,
+        final TransformContext context,
+        final String message,
+        final Throwable cause)
+    {
+        super(message, cause, false);
+        this.constraintName = constraintName;
+        this.transformNodeFieldName = context.getTransformNodeFieldName();
+        this.sourceNodePath = context.getSourceNodePath();
+        this.valueNode = valueNode;
+    }
+
+    public String getConstraintName()
+    {
+        return constraintName;
+    }
+
+    public String getTransformNodeFieldName()
+    {
+        return transformNodeFieldName;
+    }
+
+    /**
+     * The path of the source node being transformed, e.g. |lines|3
+     */
+    public String getSourceNodePath()
+    {
+        return sourceNodePath;
+    }
+
+    public JsonNode getValueNode()
+    {
+        return valueNode;
+    }
+}
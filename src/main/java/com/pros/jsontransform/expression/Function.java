@@ -17,15 +17,17 @@
 package com.pros.jsontransform.expression;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 /**
  * The transform functions.
  *
+ * $append, $append_array_index and $replace are text functions.
+ *
  * TODO function argument validation
  */
-public enum Function
+public enum Function implements FunctionHandler
 {
     $APPEND
     {
@@ -33,10 +35,16 @@ public enum Function
         public JsonNode evaluate(
             final JsonNode argsNode,
             final JsonNode valueNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            return FunctionAppend.evaluate(argsNode, valueNode, transformer);
+            return FunctionAppend.evaluate(argsNode, valueNode, context);
+        }
+
+        @Override
+        public TextFunction textFunction()
+        {
+            return FunctionAppend.TEXT_FUNCTION;
         }
     },
     $APPEND_ARRAY_INDEX
@@ -45,10 +53,64 @@ public enum Function
         public JsonNode evaluate(
             final JsonNode argsNode,
             final JsonNode valueNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            return FunctionAppendArrayIndex.evaluate(argsNode, valueNode, context);
+        }
+
+        @Override
+        public TextFunction textFunction()
+        {
+            return FunctionAppendArrayIndex.TEXT_FUNCTION;
+        }
+    },
+    $AVG
+    {
+        @Override
+        public JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            return FunctionAppendArrayIndex.evaluate(argsNode, valueNode, transformer);
+            return FunctionAggregate.avg(argsNode, valueNode, context);
+        }
+    },
+    $COUNT
+    {
+        @Override
+        public JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            return FunctionAggregate.count(argsNode, valueNode, context);
+        }
+    },
+    $MAX
+    {
+        @Override
+        public JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            return FunctionAggregate.max(argsNode, valueNode, context);
+        }
+    },
+    $MIN
+    {
+        @Override
+        public JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            return FunctionAggregate.min(argsNode, valueNode, context);
         }
     },
     $RANDOM_UUID
@@ -57,10 +119,10 @@ public enum Function
         public JsonNode evaluate(
             final JsonNode argsNode,
             final JsonNode valueNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            return FunctionRandomUUID.evaluate(argsNode, valueNode, transformer);
+            return FunctionRandomUUID.evaluate(argsNode, valueNode, context);
         }
     },
     $REPLACE
@@ -69,10 +131,16 @@ public enum Function
         public JsonNode evaluate(
             final JsonNode argsNode,
             final JsonNode valueNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            return FunctionReplace.evaluate(argsNode, valueNode, transformer);
+            return FunctionReplace.evaluate(argsNode, valueNode, context);
+        }
+
+        @Override
+        public TextFunction textFunction()
+        {
+            return FunctionReplace.TEXT_FUNCTION;
         }
     },
     $SET
@@ -81,10 +149,10 @@ public enum Function
         public JsonNode evaluate(
             final JsonNode argsNode,
             final JsonNode valueNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            return FunctionSet.evaluate(argsNode, valueNode, transformer);
+            return FunctionSet.evaluate(argsNode, valueNode, context);
         }
     },
     $SUM
@@ -93,16 +161,24 @@ public enum Function
         public JsonNode evaluate(
             final JsonNode argsNode,
             final JsonNode valueNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            return FunctionSum.evaluate(argsNode, valueNode, transformer);
+            return FunctionSum.evaluate(argsNode, valueNode, context);
         }
     };
 
     public abstract JsonNode evaluate(
         final JsonNode argsNode,
         final JsonNode valueNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException;
+
+    /**
+     * The text form of the function, null if the function is not a text function.
+     */
+    public TextFunction textFunction()
+    {
+        return null;
+    }
 }
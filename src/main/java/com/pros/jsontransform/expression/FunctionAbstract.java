@@ -17,9 +17,10 @@
 package com.pros.jsontransform.expression;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.pros.jsontransform.ObjectTransformer;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public abstract class FunctionAbstract
 {
@@ -47,7 +48,7 @@ public abstract class FunctionAbstract
 
     static String transformValue(
         final JsonNode valueNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     {
         String result = "";
         if (valueNode != null)
@@ -59,17 +60,14 @@ public abstract class FunctionAbstract
 
     static JsonNode transformArgument(
         final JsonNode argumentNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        ObjectNode resultNode = transformer.mapper.createObjectNode();
-
         if (argumentNode.isContainerNode())
         {
             // transform argument node
-            JsonNode sourceNode = transformer.getSourceNode();
-            JsonNode valueNode = transformer.transformExpression(sourceNode, argumentNode);
-            resultNode.put("result", valueNode);
+            JsonNode valueNode = context.transformExpression(context.getSourceNode(), argumentNode);
+            return valueNode != null ? valueNode : NullNode.getInstance();
         }
         else if (argumentNode.isTextual())
         {
@@ -77,16 +75,39 @@ public abstract class FunctionAbstract
             String textValue = argumentNode.textValue();
             if (textValue.contains($I))
             {
-                int arrayIndex = transformer.getIndexOfSourceArray();
-                textValue = textValue.replace($I, String.valueOf(arrayIndex));
+                int arrayIndex = context.getIndexOfSourceArray();
+                return TextNode.valueOf(textValue.replace($I, String.valueOf(arrayIndex)));
+            }
+        }
+
+        // value nodes are immutable, the transform map node is the result
+        return argumentNode;
+    }
+
+    /**
+     * Append the text of a transformed argument without creating a node for $i.
+     */
+    static void appendArgument(
+        final StringBuilder text,
+        final JsonNode argumentNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        if (argumentNode.isTextual())
+        {
+            String textValue = argumentNode.textValue();
+            if (textValue.contains($I))
+            {
+                text.append(textValue.replace($I, String.valueOf(context.getIndexOfSourceArray())));
+            }
+            else
+            {
+                text.append(textValue);
             }
-            resultNode.put("result", textValue);
         }
         else
         {
-            resultNode.put("result", argumentNode);
+            text.append(transformArgument(argumentNode, context).asText());
         }
-
-        return resultNode.get("result");
     }
 }
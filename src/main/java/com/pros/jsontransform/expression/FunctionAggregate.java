@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.expression;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
+
+/**
+ * Aggregate the elements of a source array, the array is the value of the transform node.
+ *
+ * e.g. {"$value":"lines", "$expression":[{"$sum":{"$by":{"$value":"price"}, "$decimal":true}}]}
+ *
+ * $by finds the value in each element, the element itself without $by. Values that are
+ * not numbers are ignored. Sums are kept in a long while all values are integers and
+ * in a double otherwise, or in a BigDecimal with "$decimal":true.
+ */
+public class FunctionAggregate extends FunctionAbstract
+{
+    static final String ARGUMENT_BY = "$by";
+    static final String ARGUMENT_DECIMAL = "$decimal";
+
+    public static JsonNode sum(
+        final JsonNode argsNode,
+        final JsonNode valueNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        return aggregate(argsNode, valueNode, context).getSum();
+    }
+
+    public static JsonNode avg(
+        final JsonNode argsNode,
+        final JsonNode valueNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        return aggregate(argsNode, valueNode, context).getAverage();
+    }
+
+    public static JsonNode min(
+        final JsonNode argsNode,
+        final JsonNode valueNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        return aggregate(argsNode, valueNode, context).getMin();
+    }
+
+    public static JsonNode max(
+        final JsonNode argsNode,
+        final JsonNode valueNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        return aggregate(argsNode, valueNode, context).getMax();
+    }
+
+    /**
+     * The number of elements, or of elements with a non null value with $by.
+     */
+    public static JsonNode count(
+        final JsonNode argsNode,
+        final JsonNode valueNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        if (!valueNode.isArray())
+        {
+            return IntNode.valueOf(0);
+        }
+
+        JsonNode byNode = argsNode.get(ARGUMENT_BY);
+        if (byNode == null)
+        {
+            return IntNode.valueOf(valueNode.size());
+        }
+
+        int count = 0;
+        for (JsonNode element : valueNode)
+        {
+            JsonNode value = context.transformExpression(element, byNode);
+            if (value != null && !value.isMissingNode() && !value.isNull())
+            {
+                count++;
+            }
+        }
+
+        return IntNode.valueOf(count);
+    }
+
+    private static Accumulator aggregate(
+        final JsonNode argsNode,
+        final JsonNode valueNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        Accumulator accumulator = new Accumulator(argsNode.path(ARGUMENT_DECIMAL).asBoolean());
+        if (valueNode.isArray())
+        {
+            JsonNode byNode = argsNode.get(ARGUMENT_BY);
+            for (JsonNode element : valueNode)
+            {
+                accumulator.add(byNode == null ? element : context.transformExpression(element, byNode));
+            }
+        }
+
+        return accumulator;
+    }
+
+    /**
+     * Running count, sum, min and max of number nodes.
+     *
+     * The min and max are the source nodes themselves, no node is created before the result.
+     */
+    static final class Accumulator
+    {
+        private final boolean decimal;
+
+        private long count;
+        private boolean integral = true;
+        private long longSum;
+        private double doubleSum;
+        private BigDecimal decimalSum = BigDecimal.ZERO;
+        private JsonNode min;
+        private JsonNode max;
+
+        Accumulator(final boolean decimal)
+        {
+            this.decimal = decimal;
+        }
+
+        void add(final JsonNode value)
+        {
+            if (value == null || !value.isNumber())
+            {
+                return;
+            }
+
+            count++;
+            if (decimal)
+            {
+                decimalSum = decimalSum.add(value.decimalValue());
+            }
+            else if (integral && value.isIntegralNumber() && value.canConvertToLong())
+            {
+                long sum = longSum + value.longValue();
+                if (((longSum ^ sum) & (value.longValue() ^ sum)) < 0)
+                {
+                    // overflow, continue in double
+                    integral = false;
+                    doubleSum = (double)longSum + value.longValue();
+                }
+                else
+                {
+                    longSum = sum;
+                }
+            }
+            else
+            {
+                if (integral)
+                {
+                    integral = false;
+                    doubleSum = longSum;
+                }
+                doubleSum += value.doubleValue();
+            }
+
+            if (min == null || compare(value, min) < 0)
+            {
+                min = value;
+            }
+            if (max == null || compare(value, max) > 0)
+            {
+                max = value;
+            }
+        }
+
+        JsonNode getSum()
+        {
+            if (decimal)
+            {
+                return DecimalNode.valueOf(decimalSum);
+            }
+            return integral ? LongNode.valueOf(longSum) : DoubleNode.valueOf(doubleSum);
+        }
+
+        JsonNode getAverage()
+        {
+            if (count == 0)
+            {
+                return NullNode.getInstance();
+            }
+            if (decimal)
+            {
+                return DecimalNode.valueOf(decimalSum.divide(BigDecimal.valueOf(count), MathContext.DECIMAL128));
+            }
+            return DoubleNode.valueOf((integral ? (double)longSum : doubleSum) / count);
+        }
+
+        JsonNode getMin()
+        {
+            return result(min);
+        }
+
+        JsonNode getMax()
+        {
+            return result(max);
+        }
+
+        private JsonNode result(final JsonNode value)
+        {
+            if (value == null)
+            {
+                return NullNode.getInstance();
+            }
+            return decimal ? DecimalNode.valueOf(value.decimalValue()) : value;
+        }
+
+        private int compare(final JsonNode value1, final JsonNode value2)
+        {
+            if (decimal)
+            {
+                return value1.decimalValue().compareTo(value2.decimalValue());
+            }
+            if (value1.isIntegralNumber() && value1.canConvertToLong()
+                && value2.isIntegralNumber() && value2.canConvertToLong())
+            {
+                return Long.compare(value1.longValue(), value2.longValue());
+            }
+            return Double.compare(value1.doubleValue(), value2.doubleValue());
+        }
+    }
+}
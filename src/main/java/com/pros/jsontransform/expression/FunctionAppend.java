@@ -17,24 +17,43 @@
 package com.pros.jsontransform.expression;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.pros.jsontransform.ObjectTransformer;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class FunctionAppend extends FunctionAbstract
 {
+    /** Appends $what to the text, see Function.textFunction() */
+    static final TextFunction TEXT_FUNCTION = new TextFunction()
+    {
+        @Override
+        public void evaluate(
+            final JsonNode argsNode,
+            final StringBuilder text,
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            FunctionAppend.evaluate(argsNode, text, context);
+        }
+    };
+
     public static JsonNode evaluate(
         final JsonNode argsNode,
         final JsonNode valueNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        ObjectNode resultNode = (ObjectNode)argsNode;
-        resultNode.put(
-            "returnValue",
-            transformValue(valueNode, transformer)
-                + transformArgument(argsNode.path(ARGUMENT_WHAT), transformer).asText());
+        StringBuilder text = new StringBuilder(transformValue(valueNode, context));
+        evaluate(argsNode, text, context);
+        return TextNode.valueOf(text.toString());
+    }
 
-        return resultNode.get("returnValue");
+    public static void evaluate(
+        final JsonNode argsNode,
+        final StringBuilder text,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        appendArgument(text, argsNode.path(ARGUMENT_WHAT), context);
     }
 }
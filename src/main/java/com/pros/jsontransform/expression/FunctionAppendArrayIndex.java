@@ -19,25 +19,44 @@ package com.pros.jsontransform.expression;
 import java.util.List;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.pros.jsontransform.ObjectTransformer;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class FunctionAppendArrayIndex extends FunctionAbstract
 {
+    /** Appends the array index to the text, see Function.textFunction() */
+    static final TextFunction TEXT_FUNCTION = new TextFunction()
+    {
+        @Override
+        public void evaluate(
+            final JsonNode argsNode,
+            final StringBuilder text,
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            FunctionAppendArrayIndex.evaluate(argsNode, text, context);
+        }
+    };
+
     public static JsonNode evaluate(
         final JsonNode argsNode,
         final JsonNode valueNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        List<Integer> sourceArrayIndexes = transformer.getSourceArrayIndexes();
-        ObjectNode resultNode = (ObjectNode)argsNode;
-        resultNode.put(
-            "returnValue",
-            transformValue(valueNode, transformer)
-                + sourceArrayIndexes.get(sourceArrayIndexes.size() - 1));
+        StringBuilder text = new StringBuilder(transformValue(valueNode, context));
+        evaluate(argsNode, text, context);
+        return TextNode.valueOf(text.toString());
+    }
 
-        return resultNode.get("returnValue");
+    public static void evaluate(
+        final JsonNode argsNode,
+        final StringBuilder text,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        List<Integer> sourceArrayIndexes = context.getSourceArrayIndexes();
+        text.append(sourceArrayIndexes.get(sourceArrayIndexes.size() - 1).intValue());
     }
 }
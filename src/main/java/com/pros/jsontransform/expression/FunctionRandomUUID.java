@@ -19,21 +19,18 @@ package com.pros.jsontransform.expression;
 import java.util.UUID;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.pros.jsontransform.ObjectTransformer;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class FunctionRandomUUID extends FunctionAbstract
 {
     public static JsonNode evaluate(
         final JsonNode argsNode,
         final JsonNode valueNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        ObjectNode resultNode = (ObjectNode)argsNode;
-        resultNode.put("returnValue", UUID.randomUUID().toString());
-
-        return resultNode.get("returnValue");
+        return TextNode.valueOf(UUID.randomUUID().toString());
     }
 }
@@ -17,25 +17,75 @@
 package com.pros.jsontransform.expression;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.pros.jsontransform.ObjectTransformer;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class FunctionReplace extends FunctionAbstract
 {
+    /** Replaces $what in the text, see Function.textFunction() */
+    static final TextFunction TEXT_FUNCTION = new TextFunction()
+    {
+        @Override
+        public void evaluate(
+            final JsonNode argsNode,
+            final StringBuilder text,
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            FunctionReplace.evaluate(argsNode, text, context);
+        }
+    };
+
     public static JsonNode evaluate(
         final JsonNode argsNode,
         final JsonNode valueNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        StringBuilder text = new StringBuilder(transformValue(valueNode, context));
+        evaluate(argsNode, text, context);
+        return TextNode.valueOf(text.toString());
+    }
+
+    /**
+     * Replace all occurrences of $what in the text, as String.replace does.
+     */
+    public static void evaluate(
+        final JsonNode argsNode,
+        final StringBuilder text,
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        ObjectNode resultNode = (ObjectNode)argsNode;
-        resultNode.put(
-            "returnValue",
-            transformValue(valueNode, transformer).replace(
-                argsNode.path(ARGUMENT_WHAT).asText(),
-                transformArgument(argsNode.path(ARGUMENT_WITH), transformer).asText()));
-
-        return resultNode.get("returnValue");
+        String what = argsNode.path(ARGUMENT_WHAT).asText();
+        String with = transformArgument(argsNode.path(ARGUMENT_WITH), context).asText();
+        if (what.isEmpty())
+        {
+            // inserts between each character
+            String result = text.toString().replace(what, with);
+            text.setLength(0);
+            text.append(result);
+            return;
+        }
+
+        int index = text.indexOf(what);
+        if (index < 0)
+        {
+            return;
+        }
+
+        // copy the text between matches once, replacing in place would move the rest on each match
+        StringBuilder result = new StringBuilder(text.length());
+        int start = 0;
+        while (index >= 0)
+        {
+            result.append(text, start, index).append(with);
+            start = index + what.length();
+            index = text.indexOf(what, start);
+        }
+        result.append(text, start, text.length());
+
+        text.setLength(0);
+        text.append(result);
     }
 }
@@ -17,23 +17,17 @@
 package com.pros.jsontransform.expression;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class FunctionSet extends FunctionAbstract
 {
     public static JsonNode evaluate(
         final JsonNode argsNode,
         final JsonNode valueNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        ObjectNode resultNode = (ObjectNode)argsNode;
-        resultNode.put(
-            "returnValue",
-            transformArgument(argsNode.path(ARGUMENT_WITH), transformer));
-
-        return resultNode.get("returnValue");
+        return transformArgument(argsNode.path(ARGUMENT_WITH), context);
     }
 }
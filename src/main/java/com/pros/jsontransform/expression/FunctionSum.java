@@ -17,9 +17,9 @@
 package com.pros.jsontransform.expression;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.pros.jsontransform.ObjectTransformer;
+import com.fasterxml.jackson.databind.node.DoubleNode;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 /**
  * Calculate the sum of numeric nodes specified in $what argument.
@@ -33,16 +33,23 @@ public class FunctionSum extends FunctionAbstract
     public static JsonNode evaluate(
         final JsonNode argsNode,
         final JsonNode valueNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
+        if (!argsNode.has(ARGUMENT_WHAT) && valueNode.isArray())
+        {
+            // sum the elements of a source array, a double as the other forms unless $decimal is set
+            JsonNode sum = FunctionAggregate.sum(argsNode, valueNode, context);
+            return sum.isBigDecimal() ? sum : DoubleNode.valueOf(sum.doubleValue());
+        }
+
         Double sum = 0.0;
         JsonNode sumValuesArray = argsNode.path(ARGUMENT_WHAT);
         if (sumValuesArray.isArray())
         {
             for (JsonNode sumValue : sumValuesArray)
             {
-                JsonNode value = transformer.transformValueNode(transformer.getSourceNode(), sumValue);
+                JsonNode value = context.transformValueNode(context.getSourceNode(), sumValue);
                 if (value.isNumber())
                 {
                     sum += value.asDouble();
@@ -56,9 +63,6 @@ public class FunctionSum extends FunctionAbstract
             sum += valueNode.asDouble();
         }
 
-        ObjectNode resultNode = (ObjectNode)argsNode;
-        resultNode.put("returnValue", sum);
-
-        return resultNode.get("returnValue");
+        return DoubleNode.valueOf(sum);
     }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton that finds if a text contains any of many patterns,
+ * scanning the text once whatever the number of patterns.
+ *
+ * Characters of the patterns are mapped to a small alphabet, other characters
+ * share one class. Transitions are a dense table of states by alphabet, built
+ * with the failure links, so each character of the text is one table lookup.
+ * An automaton is immutable and can be shared by threads.
+ */
+final class AhoCorasick
+{
+    /** Alphabet class of each character up to the highest pattern character, 0 for others */
+    private final int[] charClasses;
+
+    /** Number of alphabet classes, class 0 included */
+    private final int alphabetSize;
+
+    /** Next state by state * alphabetSize + class */
+    private final int[] transitions;
+
+    /** True for states that end a pattern, directly or by a failure link */
+    private final boolean[] matches;
+
+    AhoCorasick(final List<String> patterns)
+    {
+        // alphabet of the pattern characters
+        char maxChar = 0;
+        for (String pattern : patterns)
+        {
+            for (int i = 0; i < pattern.length(); i++)
+            {
+                maxChar = (char)Math.max(maxChar, pattern.charAt(i));
+            }
+        }
+        charClasses = new int[maxChar + 1];
+        int classCount = 1;
+        for (String pattern : patterns)
+        {
+            for (int i = 0; i < pattern.length(); i++)
+            {
+                char c = pattern.charAt(i);
+                if (charClasses[c] == 0)
+                {
+                    charClasses[c] = classCount++;
+                }
+            }
+        }
+        alphabetSize = classCount;
+
+        // trie of the patterns, -1 for missing transitions
+        List<int[]> trie = new ArrayList<int[]>();
+        List<Boolean> ends = new ArrayList<Boolean>();
+        trie.add(newRow());
+        ends.add(Boolean.FALSE);
+        for (String pattern : patterns)
+        {
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++)
+            {
+                int charClass = charClasses[pattern.charAt(i)];
+                if (trie.get(state)[charClass] < 0)
+                {
+                    trie.get(state)[charClass] = trie.size();
+                    trie.add(newRow());
+                    ends.add(Boolean.FALSE);
+                }
+                state = trie.get(state)[charClass];
+            }
+            ends.set(state, Boolean.TRUE);
+        }
+
+        // breadth first, missing transitions follow the failure link
+        int stateCount = trie.size();
+        transitions = new int[stateCount * alphabetSize];
+        matches = new boolean[stateCount];
+        int[] failures = new int[stateCount];
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = 0;
+        while (head < tail)
+        {
+            int state = queue[head++];
+            matches[state] = ends.get(state) || matches[failures[state]];
+            int[] row = trie.get(state);
+            for (int charClass = 0; charClass < alphabetSize; charClass++)
+            {
+                int failureNext = state == 0 ? 0 : transitions[failures[state] * alphabetSize + charClass];
+                int next = row[charClass];
+                if (next > 0)
+                {
+                    failures[next] = failureNext;
+                    queue[tail++] = next;
+                }
+                else
+                {
+                    next = failureNext;
+                }
+                transitions[state * alphabetSize + charClass] = next;
+            }
+        }
+    }
+
+    private int[] newRow()
+    {
+        int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    /**
+     * True if the text contains at least one pattern.
+     */
+    boolean find(final String text)
+    {
+        if (matches[0])
+        {
+            // an empty pattern is found in any text
+            return true;
+        }
+
+        int state = 0;
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            state = transitions[state * alphabetSize + (c < charClasses.length ? charClasses[c] : 0)];
+            if (matches[state])
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
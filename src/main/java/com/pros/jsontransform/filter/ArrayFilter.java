@@ -17,13 +17,13 @@
 package com.pros.jsontransform.filter;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 /**
  * The JSON  array filter operators.
  */
-public enum ArrayFilter
+public enum ArrayFilter implements ArrayFilterHandler
 {
     $CONTAINS
     {
@@ -31,10 +31,23 @@ public enum ArrayFilter
         public boolean evaluate(
             final JsonNode filterNode,
             final JsonNode elementNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            return ArrayFilterContains.evaluate(filterNode, elementNode, transformer);
+            return ArrayFilterContains.evaluate(filterNode, elementNode, context);
+        }
+
+        @Override
+        public ArrayFilterMatcher compile(final JsonNode filterArguments)
+        {
+            return ArrayFilterContains.compile(filterArguments);
+        }
+
+        @Override
+        public boolean usesValue(final JsonNode elementNode)
+        {
+            // values other than objects are compared as they are
+            return elementNode.isObject();
         }
     },
     $EQUALS
@@ -43,19 +56,116 @@ public enum ArrayFilter
         public boolean evaluate(
             final JsonNode filterNode,
             final JsonNode elementNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            return ArrayFilterEquals.evaluate(filterNode, elementNode, context);
+        }
+
+        @Override
+        public ArrayFilterMatcher compile(final JsonNode filterArguments)
+        {
+            return ArrayFilterEquals.compile(filterArguments);
+        }
+    },
+    $IN
+    {
+        @Override
+        public boolean evaluate(
+            final JsonNode filterNode,
+            final JsonNode elementNode,
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            return ArrayFilterIn.evaluate(filterNode, elementNode, context, true);
+        }
+
+        @Override
+        public ArrayFilterMatcher compile(final JsonNode filterArguments)
         throws ObjectTransformerException
         {
-            return ArrayFilterEquals.evaluate(filterNode, elementNode, transformer);
+            return ArrayFilterIn.compile(filterArguments, true);
+        }
+    },
+    $NOTIN
+    {
+        @Override
+        public boolean evaluate(
+            final JsonNode filterNode,
+            final JsonNode elementNode,
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            return ArrayFilterIn.evaluate(filterNode, elementNode, context, false);
+        }
+
+        @Override
+        public ArrayFilterMatcher compile(final JsonNode filterArguments)
+        throws ObjectTransformerException
+        {
+            return ArrayFilterIn.compile(filterArguments, false);
+        }
+    },
+    $MATCHES
+    {
+        @Override
+        public boolean evaluate(
+            final JsonNode filterNode,
+            final JsonNode elementNode,
+            final TransformContext context)
+        throws ObjectTransformerException
+        {
+            return ArrayFilterMatches.evaluate(filterNode, elementNode, context);
+        }
+
+        @Override
+        public ArrayFilterMatcher compile(final JsonNode filterArguments)
+        throws ObjectTransformerException
+        {
+            return ArrayFilterMatches.compile(filterArguments);
         }
     };
 
     public static String ARGUMENT_VALUE = "$value";
     public static String ARGUMENT_WHAT = "$what";
 
+    /**
+     * Evaluate a filter node for one element, $in, $notIn and $matches reuse the matcher the context compiled for the node.
+     */
     public abstract boolean evaluate(
         final JsonNode filterNode,
         final JsonNode elementNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
+    throws ObjectTransformerException;
+
+    /**
+     * Compile the arguments of a filter once per array, the matcher tests the value of each element.
+     */
+    public abstract ArrayFilterMatcher compile(
+        final JsonNode filterArguments)
     throws ObjectTransformerException;
+
+    /**
+     * True if the matcher tests the $value of the element, false if it tests the element.
+     */
+    public boolean usesValue(final JsonNode elementNode)
+    {
+        return true;
+    }
+
+    /**
+     * The built-in filter of a directive name ignoring case, null if none.
+     */
+    public static ArrayFilter find(final String filterName)
+    {
+        for (ArrayFilter filter : values())
+        {
+            if (filter.name().equalsIgnoreCase(filterName))
+            {
+                return filter;
+            }
+        }
+
+        return null;
+    }
 }
@@ -16,9 +16,12 @@
 
 package com.pros.jsontransform.filter;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 /**
  * Process contains filter
@@ -29,7 +32,7 @@ public class ArrayFilterContains
     public static boolean evaluate(
         final JsonNode filterNode,
         final JsonNode elementNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
         // contains only supports string type
@@ -39,7 +42,7 @@ public class ArrayFilterContains
         if (elementNode.isObject())
         {
             // compare objects
-            fieldValue = transformer.transformValueNode(elementNode, filterArguments).asText();
+            fieldValue = context.transformValueNode(elementNode, filterArguments).asText();
         }
         else
         {
@@ -53,4 +56,45 @@ public class ArrayFilterContains
         }
         return result;
     }
+
+    /**
+     * Read the text to look for once.
+     */
+    public static ArrayFilterMatcher compile(
+        final JsonNode filterArguments)
+    {
+        final String likeValue = filterArguments.path(ArrayFilter.ARGUMENT_WHAT).asText();
+        return new ArrayFilterMatcher()
+        {
+            @Override
+            public boolean matches(final JsonNode valueNode)
+            {
+                return valueNode.asText().contains(likeValue);
+            }
+        };
+    }
+
+    /**
+     * Compile the texts of many contains filters into one automaton,
+     * a value is scanned once whatever the number of texts.
+     */
+    public static ArrayFilterMatcher compile(
+        final List<JsonNode> filterArgumentsList)
+    {
+        List<String> likeValues = new ArrayList<String>(filterArgumentsList.size());
+        for (JsonNode filterArguments : filterArgumentsList)
+        {
+            likeValues.add(filterArguments.path(ArrayFilter.ARGUMENT_WHAT).asText());
+        }
+
+        final AhoCorasick automaton = new AhoCorasick(likeValues);
+        return new ArrayFilterMatcher()
+        {
+            @Override
+            public boolean matches(final JsonNode valueNode)
+            {
+                return automaton.find(valueNode.asText());
+            }
+        };
+    }
 }
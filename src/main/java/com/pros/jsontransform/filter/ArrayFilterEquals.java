@@ -17,8 +17,8 @@
 package com.pros.jsontransform.filter;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 /**
  * Process equals filter
@@ -29,11 +29,11 @@ public class ArrayFilterEquals
     public static boolean evaluate(
         final JsonNode filterNode,
         final JsonNode elementNode,
-        final ObjectTransformer transformer) throws ObjectTransformerException
+        final TransformContext context) throws ObjectTransformerException
     {
         boolean result = false;
         JsonNode filterArguments = filterNode.get(ArrayFilter.$EQUALS.name().toLowerCase());
-        JsonNode valueNode = transformer.transformValueNode(elementNode, filterArguments);
+        JsonNode valueNode = context.transformValueNode(elementNode, filterArguments);
         JsonNode likeNode = filterArguments.path(ArrayFilter.ARGUMENT_WHAT);
         if (valueNode.equals(likeNode))
         {
@@ -41,4 +41,21 @@ public class ArrayFilterEquals
         }
         return result;
     }
+
+    /**
+     * Read the value to compare with once.
+     */
+    public static ArrayFilterMatcher compile(
+        final JsonNode filterArguments)
+    {
+        final JsonNode likeNode = filterArguments.path(ArrayFilter.ARGUMENT_WHAT);
+        return new ArrayFilterMatcher()
+        {
+            @Override
+            public boolean matches(final JsonNode valueNode)
+            {
+                return valueNode.equals(likeNode);
+            }
+        };
+    }
 }
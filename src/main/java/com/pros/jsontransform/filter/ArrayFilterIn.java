@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.filter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
+
+/**
+ * Process in and not in filters, values are compared as with equals
+ * {"$in":{"$value":"status", "$what":["open", "pending"]}}
+ * {"$notIn":{"$value":"status", "$what":["closed"]}}
+ */
+public class ArrayFilterIn
+{
+    public static boolean evaluate(
+        final JsonNode filterNode,
+        final JsonNode elementNode,
+        final TransformContext context,
+        final boolean in)
+    throws ObjectTransformerException
+    {
+        JsonNode filterArguments = filterNode.elements().next();
+        JsonNode valueNode = context.transformValueNode(elementNode, filterArguments);
+        return context.getFilterMatcher(in ? ArrayFilter.$IN : ArrayFilter.$NOTIN, filterNode).matches(valueNode);
+    }
+
+    /**
+     * Put the values in a hash set, so an element is tested with one lookup.
+     */
+    public static ArrayFilterMatcher compile(
+        final JsonNode filterArguments,
+        final boolean in)
+    throws ObjectTransformerException
+    {
+        JsonNode whatNode = filterArguments.path(ArrayFilter.ARGUMENT_WHAT);
+        if (!whatNode.isArray())
+        {
+            throw new ObjectTransformerException(
+                (in ? "$in" : "$notIn") + " filter expects an array of values in " + ArrayFilter.ARGUMENT_WHAT);
+        }
+
+        final Set<JsonNode> values = new HashSet<JsonNode>();
+        for (JsonNode likeNode : whatNode)
+        {
+            values.add(likeNode);
+        }
+
+        return new ArrayFilterMatcher()
+        {
+            @Override
+            public boolean matches(final JsonNode valueNode)
+            {
+                return values.contains(valueNode) == in;
+            }
+        };
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.filter;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
+
+/**
+ * Process matches filter, the whole text value must match a regular expression
+ * {"$matches":{"$value":"sku", "$what":"^[A-Z]{3}-[0-9]+$"}}
+ */
+public class ArrayFilterMatches
+{
+    public static boolean evaluate(
+        final JsonNode filterNode,
+        final JsonNode elementNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        JsonNode filterArguments = filterNode.elements().next();
+        JsonNode valueNode = context.transformValueNode(elementNode, filterArguments);
+        return context.getFilterMatcher(ArrayFilter.$MATCHES, filterNode).matches(valueNode);
+    }
+
+    /**
+     * Compile the pattern once, missing and null values never match.
+     */
+    public static ArrayFilterMatcher compile(
+        final JsonNode filterArguments)
+    throws ObjectTransformerException
+    {
+        String regex = filterArguments.path(ArrayFilter.ARGUMENT_WHAT).asText();
+        final Pattern pattern;
+        try
+        {
+            pattern = Pattern.compile(regex);
+        }
+        catch (PatternSyntaxException psEx)
+        {
+            throw new ObjectTransformerException("Invalid $matches pattern " + regex, psEx);
+        }
+
+        return new ArrayFilterMatcher()
+        {
+            @Override
+            public boolean matches(final JsonNode valueNode)
+            {
+                return !valueNode.isMissingNode()
+                    && !valueNode.isNull()
+                    && pattern.matcher(valueNode.asText()).matches();
+            }
+        };
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.plugin;
+
+/**
+ * A plugin found with java.util.ServiceLoader, on the classpath or in the plugin folder.
+ *
+ * Plugins are instantiated once when the ObjectTransformer is created and are used
+ * by all its threads, so they must be thread-safe. The name is the directive used in
+ * transform maps, e.g. "$round_price", and is matched ignoring case.
+ */
+public interface Plugin
+{
+    String getName();
+
+    /**
+     * Called once after registration when the plugin.warm.up property is true,
+     * e.g. to load data or run the plugin on sample values.
+     */
+    default void warmUp()
+    {
+    }
+}
@@ -17,169 +17,611 @@
 package com.pros.jsontransform.plugin;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
+import com.pros.jsontransform.constraint.ConstraintHandler;
+import com.pros.jsontransform.expression.FunctionHandler;
+import com.pros.jsontransform.filter.ArrayFilterHandler;
+import com.pros.jsontransform.sort.ArraySortHandler;
 
 /**
  * Manage json-transform plugins
+ *
+ * The plugin class loader is created once and shared by all threads
+ * using the owning ObjectTransformer. Typed plugins are found with ServiceLoader
+ * and registered by name when the ObjectTransformer is created. Other plugins are
+ * named by class, their static method is resolved once to a MethodHandle and
+ * later calls invoke it directly.
  */
 public class PluginManager
 {
     /** The class loader */
-    private URLClassLoader urlClassLoader;
+    private volatile URLClassLoader urlClassLoader;
 
     /** Where plugins are located */
     private String pluginFolder;
 
+    /** Plugin handlers by class name */
+    private final ConcurrentHashMap<String, FunctionHandler> functionPlugins =
+        new ConcurrentHashMap<String, FunctionHandler>();
+    private final ConcurrentHashMap<String, ArrayFilterHandler> filterPlugins =
+        new ConcurrentHashMap<String, ArrayFilterHandler>();
+    private final ConcurrentHashMap<String, ConstraintHandler> constraintPlugins =
+        new ConcurrentHashMap<String, ConstraintHandler>();
+    private final ConcurrentHashMap<String, ArraySortHandler> sortPlugins =
+        new ConcurrentHashMap<String, ArraySortHandler>();
+
+    /** Plugin method signatures */
+    private static final MethodType FUNCTION_TYPE = MethodType.methodType(
+        JsonNode.class, JsonNode.class, JsonNode.class, TransformContext.class);
+    private static final MethodType FILTER_TYPE = MethodType.methodType(
+        boolean.class, JsonNode.class, JsonNode.class, TransformContext.class);
+    private static final MethodType CONSTRAINT_TYPE = MethodType.methodType(
+        void.class, JsonNode.class, JsonNode.class, TransformContext.class);
+    private static final MethodType SORT_TYPE = MethodType.methodType(
+        void.class, ArrayNode.class, JsonNode.class, TransformContext.class);
+
+    /** Position of the TransformContext argument in plugin methods */
+    private static final int CONTEXT_ARGUMENT = 2;
+
+    /** Adapts the TransformContext argument to plugin methods taking an ObjectTransformer */
+    private static final MethodHandle GET_TRANSFORMER = getTransformerHandle();
+
+    /** The context of the plugin method taking an ObjectTransformer running on each thread */
+    private static final ThreadLocal<TransformContext> legacyContext = new ThreadLocal<TransformContext>();
+
     public PluginManager(final String pluginFolder)
     {
         this.pluginFolder = pluginFolder;
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
+    /**
+     * Get the handler that runs a function plugin.
+     */
+    public FunctionHandler getFunctionPlugin(final String pluginClassName)
+    {
+        FunctionHandler plugin = functionPlugins.get(pluginClassName);
+        if (plugin == null)
+        {
+            final PluginMethod evaluateMethod = new PluginMethod(pluginClassName, "evaluate", FUNCTION_TYPE);
+            plugin = new FunctionHandler()
+            {
+                @Override
+                public JsonNode evaluate(
+                    final JsonNode argsNode,
+                    final JsonNode valueNode,
+                    final TransformContext context)
+                throws ObjectTransformerException
+                {
+                    try
+                    {
+                        MethodHandle handle = evaluateMethod.get();
+                        TransformContext previous = evaluateMethod.enter(context);
+                        try
+                        {
+                            return (JsonNode)handle.invokeExact(argsNode, valueNode, context);
+                        }
+                        finally
+                        {
+                            evaluateMethod.exit(previous);
+                        }
+                    }
+                    catch (Throwable ex)
+                    {
+                        throw pluginError("function", pluginClassName, ex);
+                    }
+                }
+            };
+            FunctionHandler existing = functionPlugins.putIfAbsent(pluginClassName, plugin);
+            if (existing != null)
+            {
+                plugin = existing;
+            }
+        }
+
+        return plugin;
+    }
+
+    /**
+     * Get the handler that runs a filter plugin.
+     */
+    public ArrayFilterHandler getFilterPlugin(final String pluginClassName)
+    {
+        ArrayFilterHandler plugin = filterPlugins.get(pluginClassName);
+        if (plugin == null)
+        {
+            final PluginMethod evaluateMethod = new PluginMethod(pluginClassName, "evaluate", FILTER_TYPE);
+            plugin = new ArrayFilterHandler()
+            {
+                @Override
+                public boolean evaluate(
+                    final JsonNode filterNode,
+                    final JsonNode elementNode,
+                    final TransformContext context)
+                throws ObjectTransformerException
+                {
+                    try
+                    {
+                        MethodHandle handle = evaluateMethod.get();
+                        TransformContext previous = evaluateMethod.enter(context);
+                        try
+                        {
+                            return (boolean)handle.invokeExact(filterNode, elementNode, context);
+                        }
+                        finally
+                        {
+                            evaluateMethod.exit(previous);
+                        }
+                    }
+                    catch (Throwable ex)
+                    {
+                        throw pluginError("filter", pluginClassName, ex);
+                    }
+                }
+            };
+            ArrayFilterHandler existing = filterPlugins.putIfAbsent(pluginClassName, plugin);
+            if (existing != null)
+            {
+                plugin = existing;
+            }
+        }
+
+        return plugin;
+    }
+
+    /**
+     * Get the handler that runs a constraint plugin.
+     */
+    public ConstraintHandler getConstraintPlugin(final String pluginClassName)
+    {
+        ConstraintHandler plugin = constraintPlugins.get(pluginClassName);
+        if (plugin == null)
+        {
+            final PluginMethod validateMethod = new PluginMethod(pluginClassName, "validate", CONSTRAINT_TYPE);
+            plugin = new ConstraintHandler()
+            {
+                @Override
+                public void validate(
+                    final JsonNode constraintNode,
+                    final JsonNode resultNode,
+                    final TransformContext context)
+                throws ObjectTransformerException
+                {
+                    try
+                    {
+                        MethodHandle handle = validateMethod.get();
+                        TransformContext previous = validateMethod.enter(context);
+                        try
+                        {
+                            handle.invokeExact(constraintNode, resultNode, context);
+                        }
+                        finally
+                        {
+                            validateMethod.exit(previous);
+                        }
+                    }
+                    catch (Throwable ex)
+                    {
+                        throw pluginError("constraint", pluginClassName, ex);
+                    }
+                }
+            };
+            ConstraintHandler existing = constraintPlugins.putIfAbsent(pluginClassName, plugin);
+            if (existing != null)
+            {
+                plugin = existing;
+            }
+        }
+
+        return plugin;
+    }
+
+    /**
+     * Get the handler that runs a sort plugin.
+     */
+    public ArraySortHandler getSortPlugin(final String pluginClassName)
+    {
+        ArraySortHandler plugin = sortPlugins.get(pluginClassName);
+        if (plugin == null)
+        {
+            final PluginMethod sortMethod = new PluginMethod(pluginClassName, "sort", SORT_TYPE);
+            plugin = new ArraySortHandler()
+            {
+                @Override
+                public void sort(
+                    final ArrayNode arrayNode,
+                    final JsonNode sortNode,
+                    final TransformContext context)
+                throws ObjectTransformerException
+                {
+                    try
+                    {
+                        MethodHandle handle = sortMethod.get();
+                        TransformContext previous = sortMethod.enter(context);
+                        try
+                        {
+                            handle.invokeExact(arrayNode, sortNode, context);
+                        }
+                        finally
+                        {
+                            sortMethod.exit(previous);
+                        }
+                    }
+                    catch (Throwable ex)
+                    {
+                        throw pluginError("sort", pluginClassName, ex);
+                    }
+                }
+            };
+            ArraySortHandler existing = sortPlugins.putIfAbsent(pluginClassName, plugin);
+            if (existing != null)
+            {
+                plugin = existing;
+            }
+        }
+
+        return plugin;
+    }
+
     public void constraintPluginValidate(
         final String pluginClassName,
         final JsonNode constraintNode,
         final JsonNode resultNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        try
-        {
-            Class pluginClass = loadPlugin(pluginClassName);
-            Method validate = pluginClass.getMethod(
-                "validate",
-                JsonNode.class,
-                JsonNode.class,
-                ObjectTransformer.class);
-            validate.invoke(null, constraintNode, resultNode, transformer);
-        }
-        catch (Exception ex)
-        {
-            throw new ObjectTransformerException(
-                "Error from constraint plugin " + pluginClassName, ex);
-        }
+        getConstraintPlugin(pluginClassName).validate(constraintNode, resultNode, context);
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public JsonNode functionPluginEvaluate(
         final String pluginClassName,
         final JsonNode argsNode,
         final JsonNode resultNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
-        try
-        {
-            Class pluginClass = loadPlugin(pluginClassName);
-            Method evaluate = pluginClass.getMethod(
-                "evaluate",
-                JsonNode.class,
-                JsonNode.class,
-                ObjectTransformer.class);
-            return (JsonNode)evaluate.invoke(null, argsNode, resultNode, transformer);
-        }
-        catch (Exception ex)
-        {
-            throw new ObjectTransformerException(
-                "Error from function plugin " + pluginClassName, ex);
-        }
+        return getFunctionPlugin(pluginClassName).evaluate(argsNode, resultNode, context);
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public boolean filterPluginEvaluate(
         final String pluginClassName,
         final JsonNode filterNode,
         final JsonNode elementNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        return getFilterPlugin(pluginClassName).evaluate(filterNode, elementNode, context);
+    }
+
+    public void sortPluginSort(
+        final String pluginClassName,
+        final ArrayNode targetArray,
+        final JsonNode sortNode,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        getSortPlugin(pluginClassName).sort(targetArray, sortNode, context);
+    }
+
+    private static ObjectTransformerException pluginError(
+        final String pluginType,
+        final String pluginClassName,
+        final Throwable cause)
+    {
+        if (cause instanceof Error)
+        {
+            throw (Error)cause;
+        }
+        return new ObjectTransformerException("Error from " + pluginType + " plugin " + pluginClassName, cause);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Class loadPlugin(final String pluginClassName)
     throws ObjectTransformerException
     {
+        Class pluginClass = null;
+
         try
         {
-            Class pluginClass = loadPlugin(pluginClassName);
-            Method evaluate = pluginClass.getMethod(
-                "evaluate",
-                JsonNode.class,
-                JsonNode.class,
-                ObjectTransformer.class);
-            return (boolean)evaluate.invoke(null, filterNode, elementNode, transformer);
+            pluginClass = getClassLoader(pluginClassName).loadClass(pluginClassName);
+        }
+        catch (ObjectTransformerException ex)
+        {
+            throw ex;
         }
         catch (Exception ex)
         {
             throw new ObjectTransformerException(
-                "Error from filter plugin " + pluginClassName, ex);
+                "Cannot load plugin " + pluginClassName, ex);
         }
+
+        return pluginClass;
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    public void sortPluginSort(
-        final String pluginClassName,
-        final ArrayNode targetArray,
-        final JsonNode sortNode,
-        final ObjectTransformer transformer)
+    /**
+     * Close the class loader of the plugin folder jars, plugins cannot be loaded after.
+     */
+    public void close()
+    throws IOException
+    {
+        URLClassLoader classLoader = urlClassLoader;
+        if (classLoader != null)
+        {
+            classLoader.close();
+        }
+    }
+
+    /**
+     * Instantiate the plugins of a type listed in META-INF/services, first those
+     * on the classpath then those in the plugin folder jars.
+     */
+    public <P extends Plugin> List<P> loadServicePlugins(final Class<P> pluginType)
+    {
+        List<P> plugins = new ArrayList<P>();
+        Set<String> pluginClassNames = new HashSet<String>();
+        addServicePlugins(ServiceLoader.load(pluginType, PluginManager.class.getClassLoader()),
+            plugins, pluginClassNames);
+
+        URLClassLoader classLoader;
+        try
+        {
+            classLoader = findClassLoader();
+        }
+        catch (MalformedURLException ex)
+        {
+            throw new IllegalArgumentException("Cannot read plugin folder " + pluginFolder, ex);
+        }
+        if (classLoader != null)
+        {
+            // the folder class loader also finds the classpath plugins again
+            addServicePlugins(ServiceLoader.load(pluginType, classLoader), plugins, pluginClassNames);
+        }
+
+        return plugins;
+    }
+
+    private static <P extends Plugin> void addServicePlugins(
+        final ServiceLoader<P> serviceLoader,
+        final List<P> plugins,
+        final Set<String> pluginClassNames)
+    {
+        for (P plugin : serviceLoader)
+        {
+            if (pluginClassNames.add(plugin.getClass().getName()))
+            {
+                plugins.add(plugin);
+            }
+        }
+    }
+
+    private URLClassLoader getClassLoader(final String pluginClassName)
     throws ObjectTransformerException
     {
         try
         {
-            Class pluginClass = loadPlugin(pluginClassName);
-            Method sort = pluginClass.getMethod(
-                "sort",
-                ArrayNode.class,
-                JsonNode.class,
-                ObjectTransformer.class);
-            sort.invoke(null, targetArray, sortNode, transformer);
+            URLClassLoader classLoader = findClassLoader();
+            if (classLoader == null)
+            {
+                throw new ObjectTransformerException(
+                    "Cannot load plugin " + pluginClassName +
+                    " No jars found in plugin folder " + pluginFolder);
+            }
+            return classLoader;
         }
-        catch (Exception ex)
+        catch (MalformedURLException ex)
         {
             throw new ObjectTransformerException(
-                "Error from sort plugin " + pluginClassName, ex);
+                "Cannot load plugin " + pluginClassName, ex);
         }
     }
 
-    @SuppressWarnings("rawtypes")
-    private Class loadPlugin(final String pluginClassName)
-    throws ObjectTransformerException
+    /**
+     * Get the class loader of the plugin folder jars, null when there are no jars.
+     */
+    private URLClassLoader findClassLoader()
+    throws MalformedURLException
     {
-        Class pluginClass = null;
+        URLClassLoader classLoader = urlClassLoader;
+        if (classLoader == null)
+        {
+            synchronized (this)
+            {
+                classLoader = urlClassLoader;
+                if (classLoader == null)
+                {
+                    classLoader = createClassLoader();
+                    urlClassLoader = classLoader;
+                }
+            }
+        }
+
+        return classLoader;
+    }
+
+    private URLClassLoader createClassLoader()
+    throws MalformedURLException
+    {
+        File folder = new File(pluginFolder);
+        File[] listOfFiles = folder.listFiles();
+        if (listOfFiles == null)
+        {
+            listOfFiles = new File[0];
+        }
+        int jarCount = 0;
+        URL[] jarUrls = new URL[listOfFiles.length];
+        for (int i = 0; i < listOfFiles.length; i++)
+        {
+            File jarFile = listOfFiles[i];
+            if (jarFile.isFile() && jarFile.getName().endsWith(".jar"))
+            {
+                jarUrls[jarCount++] = jarFile.toURI().toURL();
+            }
+        }
+        if (jarCount == 0)
+        {
+            return null;
+        }
 
+        // plugins implement the interfaces of this library
+        return new URLClassLoader(Arrays.copyOf(jarUrls, jarCount), PluginManager.class.getClassLoader());
+    }
+
+    /**
+     * The context of the plugin method taking an ObjectTransformer running on this thread,
+     * read by the deprecated ObjectTransformer methods these plugins call.
+     */
+    public static TransformContext getLegacyContext()
+    {
+        TransformContext context = legacyContext.get();
+        if (context == null)
+        {
+            throw new IllegalStateException(
+                "Deprecated ObjectTransformer methods can only be called by plugin methods taking an ObjectTransformer");
+        }
+
+        return context;
+    }
+
+    private static MethodHandle getTransformerHandle()
+    {
         try
         {
-            if (urlClassLoader == null)
+            return MethodHandles.publicLookup().findVirtual(
+                TransformContext.class, "getTransformer", MethodType.methodType(ObjectTransformer.class));
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * A static method of a plugin class, resolved on first call. Methods taking an
+     * ObjectTransformer instead of a TransformContext are called with context.getTransformer()
+     * and the context is kept in legacyContext while they run.
+     */
+    private final class PluginMethod
+    {
+        private final String pluginClassName;
+        private final String methodName;
+        private final MethodType methodType;
+        private volatile MethodHandle methodHandle;
+
+        /** The method takes an ObjectTransformer, set before methodHandle */
+        private boolean legacy;
+
+        PluginMethod(final String pluginClassName, final String methodName, final MethodType methodType)
+        {
+            this.pluginClassName = pluginClassName;
+            this.methodName = methodName;
+            this.methodType = methodType;
+        }
+
+        MethodHandle get() throws ObjectTransformerException
+        {
+            MethodHandle handle = methodHandle;
+            if (handle == null)
             {
-                File folder = new File(pluginFolder); 
-                File[] listOfFiles = folder.listFiles();
-                int jarCount = 0;
-                URL[] jarUrls = new URL[listOfFiles.length];
-                for (int i = 0; i < listOfFiles.length; i++)
+                Class<?> pluginClass = loadPlugin(pluginClassName);
+                try
                 {
-                    File jarFile = listOfFiles[i];
-                    if (jarFile.isFile() && jarFile.getName().endsWith(".jar"))
+                    Method method;
+                    MethodType legacyType = null;
+                    try
+                    {
+                        method = pluginClass.getMethod(methodName, methodType.parameterArray());
+                    }
+                    catch (NoSuchMethodException nsmEx)
+                    {
+                        // plugins written before TransformContext take the ObjectTransformer
+                        legacyType = methodType.changeParameterType(CONTEXT_ARGUMENT, ObjectTransformer.class);
+                        method = pluginClass.getMethod(methodName, legacyType.parameterArray());
+                    }
+                    if (!Modifier.isStatic(method.getModifiers()))
                     {
-                        jarUrls[jarCount++] = jarFile.toURI().toURL();
+                        throw new ObjectTransformerException(
+                            "Plugin method " + pluginClassName + "." + methodName + " is not static");
                     }
+
+                    handle = MethodHandles.publicLookup().unreflect(method);
+                    if (legacyType != null)
+                    {
+                        handle = MethodHandles.filterArguments(
+                            handle.asType(legacyType.changeReturnType(method.getReturnType())),
+                            CONTEXT_ARGUMENT,
+                            GET_TRANSFORMER);
+                    }
+                    // the plugin may declare a compatible return type, e.g. Boolean
+                    handle = handle.asType(methodType);
+                    legacy = legacyType != null;
                 }
-                if (jarCount == 0)
+                catch (ObjectTransformerException ex)
+                {
+                    throw ex;
+                }
+                catch (Exception ex)
                 {
                     throw new ObjectTransformerException(
-                        "Cannot load plugin " + pluginClassName +
-                        " No jars found in plugin folder " + pluginFolder);
+                        "Cannot load plugin " + pluginClassName, ex);
                 }
-                urlClassLoader = new URLClassLoader(jarUrls);
+                methodHandle = handle;
             }
-            pluginClass = urlClassLoader.loadClass(pluginClassName);
+
+            return handle;
         }
-        catch (Exception ex)
+
+        /**
+         * Keep the context of a call for the deprecated ObjectTransformer methods,
+         * returns the context to restore, the method is resolved.
+         */
+        TransformContext enter(final TransformContext context)
         {
-            throw new ObjectTransformerException(
-                "Cannot load plugin " + pluginClassName, ex);
+            if (!legacy)
+            {
+                return null;
+            }
+
+            // a plugin may transform nodes that call other plugins
+            TransformContext previous = legacyContext.get();
+            legacyContext.set(context);
+            return previous;
         }
 
-        return pluginClass;
+        void exit(final TransformContext previous)
+        {
+            if (!legacy)
+            {
+                return;
+            }
+
+            if (previous == null)
+            {
+                legacyContext.remove();
+            }
+            else
+            {
+                legacyContext.set(previous);
+            }
+        }
     }
 }
@@ -16,15 +16,18 @@
 
 package com.pros.jsontransform.sort;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 /**
  * The JSON  array sort operators.
  */
-public enum ArraySort
+public enum ArraySort implements ArraySortHandler
 {
     $ASCENDING
     {
@@ -32,10 +35,10 @@ public enum ArraySort
         public void sort(
             final ArrayNode arrayNode,
             final JsonNode sortNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            ArraySortAscending.sort(arrayNode, sortNode, transformer);
+            ArraySortAscending.sort(arrayNode, sortNode, context);
         }
     },
     $DESCENDING
@@ -44,18 +47,53 @@ public enum ArraySort
         public void sort(
             final ArrayNode arrayNode,
             final JsonNode sortNode,
-            final ObjectTransformer transformer)
+            final TransformContext context)
         throws ObjectTransformerException
         {
-            ArraySortDescending.sort(arrayNode, sortNode, transformer);
+            ArraySortDescending.sort(arrayNode, sortNode, context);
         }
     };
 
     public abstract void sort(
         final ArrayNode arrayNode,
         final JsonNode sortNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException;
 
     public static String ARGUMENT_BY = "$by";
+    public static final String ARGUMENT_TYPE = "$type";
+    public static final String ARGUMENT_NULLS = "$nulls";
+    public static final String ARGUMENT_LOCALE = "$locale";
+    public static final String ARGUMENT_STRENGTH = "$strength";
+
+    /**
+     * Sort by many keys, e.g. [{"$ascending":{"$by":{"$value":"name"}}}, {"$descending":{"$by":{"$value":"age"}}}]
+     * The first key orders the elements, the next keys order elements with equal keys.
+     */
+    public static void sortByKeys(
+        final ArrayNode arrayNode,
+        final JsonNode sortNodes,
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        List<JsonNode> sortKeys = new ArrayList<JsonNode>();
+        for (JsonNode sortNode : sortNodes)
+        {
+            String sortName = sortNode.isObject() && sortNode.size() > 0 ? sortNode.fieldNames().next() : "";
+            if (!sortName.equalsIgnoreCase($ASCENDING.name()) && !sortName.equalsIgnoreCase($DESCENDING.name()))
+            {
+                throw new ObjectTransformerException(
+                    "Sort keys must be " + $ASCENDING.name().toLowerCase() + " or "
+                    + $DESCENDING.name().toLowerCase() + " directives " + sortNodes.toString());
+            }
+            if (sortNode.get(sortName).get(ARGUMENT_BY) == null)
+            {
+                throw new ObjectTransformerException(
+                    "Missing argument " + ARGUMENT_BY + " in sort directive " + sortNode.toString());
+            }
+            sortKeys.add(sortNode);
+        }
+
+        ArraySortAbstract.doSort(arrayNode, sortKeys, context);
+    }
 }
@@ -16,91 +16,351 @@
 
 package com.pros.jsontransform.sort;
 
-import java.util.ArrayList;
+import java.text.Collator;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class ArraySortAbstract
 {
-    static int compareValueNodes(JsonNode value1, JsonNode value2)
-    {
-        int result = 0;
+    /** Arrays with at least this number of elements are sorted with Arrays.parallelSort */
+    static final int PARALLEL_SORT_THRESHOLD = 10000;
 
-        if (value1.isNumber() && value2.isNumber())
-        {
-            result = Double.compare(value1.asDouble(), value2.asDouble());
-        }
-        else if (value1.isTextual() && value2.isTextual())
-        {
-            result = value1.asText().compareTo(value2.asText());
-        }
+    /** Order of sort values of different types, nulls are placed by $nulls */
+    private static final byte RANK_NUMBER = 0;
+    private static final byte RANK_TEXT = 1;
+    private static final byte RANK_BOOLEAN = 2;
+    private static final byte RANK_OTHER = 3;
+    private static final byte RANK_NULL = 4;
 
-        return result;
-    }
+    /** Values of the $nulls and $type arguments */
+    private static final String NULLS_FIRST = "first";
+    private static final String NULLS_LAST = "last";
+    private static final String TYPE_AUTO = "auto";
+    private static final String TYPE_NUMBER = "number";
+    private static final String TYPE_TEXT = "text";
+    private static final String TYPE_DATE = "date";
 
     static void doSort(
         final ArrayNode arrayNode,
         final JsonNode sortNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
+    throws ObjectTransformerException
+    {
+        doSort(arrayNode, Collections.singletonList(sortNode), context);
+    }
+
+    /**
+     * Sort by keys evaluated once per element, the first sort node gives the
+     * first key. The sort is stable, elements with equal keys keep their order.
+     */
+    static void doSort(
+        final ArrayNode arrayNode,
+        final List<JsonNode> sortNodes,
+        final TransformContext context)
+    throws ObjectTransformerException
     {
-        // move array nodes to sorted array
         int size = arrayNode.size();
-        ArrayList<JsonNode> sortedArray = new ArrayList<JsonNode>(arrayNode.size());
+        final SortKey[] sortKeys = new SortKey[sortNodes.size()];
+        for (int k = 0; k < sortKeys.length; k++)
+        {
+            sortKeys[k] = new SortKey(sortNodes.get(k), size);
+        }
+
+        // evaluate the sort keys of each element
+        Integer[] order = new Integer[size];
         for (int i = 0; i < size; i++)
         {
-            sortedArray.add(arrayNode.remove(0));
+            JsonNode element = arrayNode.get(i);
+            for (SortKey sortKey : sortKeys)
+            {
+                sortKey.setValue(i, element, context);
+            }
+            order[i] = i;
         }
 
-        // sort array
-        sortedArray.sort(new NodeComparator(sortNode, transformer));
+        Comparator<Integer> comparator = new Comparator<Integer>()
+        {
+            @Override
+            public int compare(final Integer index1, final Integer index2)
+            {
+                for (SortKey sortKey : sortKeys)
+                {
+                    int result = sortKey.compare(index1, index2);
+                    if (result != 0)
+                    {
+                        return result;
+                    }
+                }
+                return 0;
+            }
+        };
+        if (size >= PARALLEL_SORT_THRESHOLD)
+        {
+            Arrays.parallelSort(order, comparator);
+        }
+        else
+        {
+            Arrays.sort(order, comparator);
+        }
 
-        // move nodes back to targetArray
-        for (int i = 0; i < sortedArray.size(); i++)
+        // put nodes back in sorted order
+        JsonNode[] elements = new JsonNode[size];
+        for (int i = 0; i < size; i++)
         {
-            arrayNode.add(sortedArray.get(i));
+            elements[i] = arrayNode.get(order[i]);
         }
+        arrayNode.removeAll();
+        arrayNode.addAll(Arrays.asList(elements));
     }
 
-    private static class NodeComparator implements Comparator<JsonNode>
+    /**
+     * One sort key, e.g. {"$descending":{"$by":{"$value":"name"}, "$type":"text", "$nulls":"first", "$locale":"de"}}
+     *
+     * The values of all elements are kept by element index: a rank that orders types,
+     * a number for numbers, dates and booleans, and a string or collation key for texts.
+     */
+    private static final class SortKey
     {
-        private ArraySort sortDirection;
-        private JsonNode byNode;
-        private ObjectTransformer transformer;
+        private final JsonNode byNode;
+        private final boolean descending;
+        private final boolean nullsFirst;
+        private final String type;
+        private final Collator collator;
+
+        private final byte[] ranks;
+        private final double[] numbers;
+        private final Object[] texts;
 
-        NodeComparator(final JsonNode sortNode, final ObjectTransformer transformer)
+        SortKey(final JsonNode sortNode, final int size)
+        throws ObjectTransformerException
         {
-            // e.g. sortNode {"$ascending":{"$by":{"$value":"."}}}
-            this.sortDirection = ArraySort.valueOf(sortNode.fieldNames().next().toUpperCase());
-            this.byNode = sortNode.get(sortDirection.name().toLowerCase()).get(ArraySort.ARGUMENT_BY);
-            this.transformer = transformer;
+            String sortName = sortNode.fieldNames().next();
+            JsonNode argsNode = sortNode.get(sortName);
+            this.descending = sortName.equalsIgnoreCase(ArraySort.$DESCENDING.name());
+            this.byNode = argsNode.get(ArraySort.ARGUMENT_BY);
+
+            String nulls = getArgument(argsNode, ArraySort.ARGUMENT_NULLS, NULLS_LAST);
+            if (!nulls.equals(NULLS_FIRST) && !nulls.equals(NULLS_LAST))
+            {
+                throw new ObjectTransformerException(
+                    "Wrong argument " + ArraySort.ARGUMENT_NULLS + " in sort directive " + sortNode.toString());
+            }
+            this.nullsFirst = nulls.equals(NULLS_FIRST);
+
+            this.type = getArgument(argsNode, ArraySort.ARGUMENT_TYPE, TYPE_AUTO);
+            if (!type.equals(TYPE_AUTO) && !type.equals(TYPE_NUMBER) && !type.equals(TYPE_TEXT)
+                && !type.equals(TYPE_DATE))
+            {
+                throw new ObjectTransformerException(
+                    "Wrong argument " + ArraySort.ARGUMENT_TYPE + " in sort directive " + sortNode.toString());
+            }
+
+            this.collator = argsNode.has(ArraySort.ARGUMENT_LOCALE)
+                ? createCollator(argsNode, sortNode) : null;
+
+            this.ranks = new byte[size];
+            this.numbers = new double[size];
+            this.texts = new Object[size];
         }
 
-        @Override
-        public int compare(JsonNode node1, JsonNode node2)
+        void setValue(
+            final int index,
+            final JsonNode element,
+            final TransformContext context)
         {
-            int result = 0;
+            JsonNode value = null;
             try
             {
-                // use byNode to find values in node1 and node2
-                JsonNode value1 = transformer.transformExpression(node1, byNode);
-                JsonNode value2 = transformer.transformExpression(node2, byNode);
-
-                // ascending order
-                result = sortDirection == ArraySort.$ASCENDING 
-                    ? compareValueNodes(value1, value2)
-                    : compareValueNodes(value2, value1);
+                // use byNode to find the value in element
+                value = context.transformExpression(element, byNode);
             }
             catch (ObjectTransformerException ex)
             {
-                transformer.getLogger().error(ex);
+                context.getLogger().error(ex);
+            }
+
+            byte rank;
+            if (value == null || value.isMissingNode() || value.isNull())
+            {
+                rank = RANK_NULL;
+            }
+            else if (type.equals(TYPE_NUMBER))
+            {
+                rank = setNumber(index, value.isNumber() ? value.asDouble() : parseNumber(value));
+            }
+            else if (type.equals(TYPE_DATE))
+            {
+                rank = setNumber(index, value.isNumber() ? value.asDouble() : parseDate(value));
+            }
+            else if (type.equals(TYPE_TEXT))
+            {
+                rank = value.isContainerNode() ? RANK_NULL : setText(index, value.asText());
+            }
+            else if (value.isNumber())
+            {
+                rank = setNumber(index, value.asDouble());
+            }
+            else if (value.isTextual())
+            {
+                rank = setText(index, value.textValue());
+            }
+            else if (value.isBoolean())
+            {
+                numbers[index] = value.booleanValue() ? 1 : 0;
+                rank = RANK_BOOLEAN;
             }
+            else
+            {
+                rank = RANK_OTHER;
+            }
+            ranks[index] = rank;
+        }
 
-            return result;
+        private byte setNumber(final int index, final double number)
+        {
+            if (Double.isNaN(number))
+            {
+                return RANK_NULL;
+            }
+            numbers[index] = number;
+            return RANK_NUMBER;
+        }
+
+        private byte setText(final int index, final String text)
+        {
+            texts[index] = collator != null ? collator.getCollationKey(text) : text;
+            return RANK_TEXT;
+        }
+
+        @SuppressWarnings("unchecked")
+        int compare(final int index1, final int index2)
+        {
+            byte rank1 = ranks[index1];
+            byte rank2 = ranks[index2];
+            if (rank1 == RANK_NULL || rank2 == RANK_NULL)
+            {
+                // nulls are placed the same way in both directions
+                int result = rank1 == rank2 ? 0 : rank1 == RANK_NULL ? 1 : -1;
+                return nullsFirst ? -result : result;
+            }
+
+            int result;
+            if (rank1 != rank2)
+            {
+                result = rank1 < rank2 ? -1 : 1;
+            }
+            else if (rank1 == RANK_TEXT)
+            {
+                result = ((Comparable<Object>)texts[index1]).compareTo(texts[index2]);
+            }
+            else if (rank1 == RANK_OTHER)
+            {
+                result = 0;
+            }
+            else
+            {
+                result = Double.compare(numbers[index1], numbers[index2]);
+            }
+
+            return descending ? -result : result;
         }
     }
 
+    private static String getArgument(
+        final JsonNode argsNode,
+        final String argumentName,
+        final String defaultValue)
+    {
+        JsonNode argumentNode = argsNode.get(argumentName);
+        return argumentNode != null ? argumentNode.asText() : defaultValue;
+    }
+
+    private static Collator createCollator(
+        final JsonNode argsNode,
+        final JsonNode sortNode)
+    throws ObjectTransformerException
+    {
+        Collator collator = Collator.getInstance(
+            Locale.forLanguageTag(argsNode.get(ArraySort.ARGUMENT_LOCALE).asText()));
+        if (argsNode.has(ArraySort.ARGUMENT_STRENGTH))
+        {
+            String strength = argsNode.get(ArraySort.ARGUMENT_STRENGTH).asText();
+            if (strength.equals("primary"))
+            {
+                collator.setStrength(Collator.PRIMARY);
+            }
+            else if (strength.equals("secondary"))
+            {
+                collator.setStrength(Collator.SECONDARY);
+            }
+            else if (strength.equals("tertiary"))
+            {
+                collator.setStrength(Collator.TERTIARY);
+            }
+            else
+            {
+                throw new ObjectTransformerException(
+                    "Wrong argument " + ArraySort.ARGUMENT_STRENGTH + " in sort directive " + sortNode.toString());
+            }
+        }
+
+        return collator;
+    }
+
+    private static double parseNumber(final JsonNode value)
+    {
+        try
+        {
+            return Double.parseDouble(value.asText().trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Milliseconds since the epoch of an ISO-8601 date or date time, times without offset are UTC.
+     */
+    private static double parseDate(final JsonNode value)
+    {
+        String text = value.asText().trim();
+        try
+        {
+            return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException ex)
+        {
+            // try without offset
+        }
+        try
+        {
+            return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+        catch (DateTimeParseException ex)
+        {
+            // try date only
+        }
+        try
+        {
+            return LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException ex)
+        {
+            return Double.NaN;
+        }
+    }
 }
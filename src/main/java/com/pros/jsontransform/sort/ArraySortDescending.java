@@ -18,8 +18,8 @@ package com.pros.jsontransform.sort;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 /**
  * Process ascending sort
@@ -30,7 +30,7 @@ public class ArraySortDescending extends ArraySortAbstract
     public static void sort(
         final ArrayNode arrayNode,
         final JsonNode sortNode,
-        final ObjectTransformer transformer)
+        final TransformContext context)
     throws ObjectTransformerException
     {
         // check $ascending arguments
@@ -41,6 +41,6 @@ public class ArraySortDescending extends ArraySortAbstract
                 + " in sort directive " + sortNode.toString());
         }
 
-        doSort(arrayNode, sortNode, transformer);
+        doSort(arrayNode, sortNode, context);
     }
 }
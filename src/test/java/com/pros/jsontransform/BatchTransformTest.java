@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class BatchTransformTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+    private static ObjectTransformer transformer;
+
+    private static String map =
+        "{"
+        + "  \"id\":{\"$value\":\"id\", \"$constraints\":[{\"$required\":true}]},"
+        + "  \"name\":{\"$value\":\"name\", \"$expression\":[{\"$append\":{\"$what\":\"!\"}}]}"
+        + "}";
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+        transformer = new ObjectTransformer(mapper);
+    }
+
+    @Test
+    public void testBatch() throws IOException, ObjectTransformerException, InterruptedException
+    {
+        List<JsonNode> sources = new ArrayList<JsonNode>();
+        for (int i = 0; i < 500; i++)
+        {
+            sources.add(mapper.readTree(i == 7 ? "{\"name\":\"none\"}" : "{\"id\":" + i + ", \"name\":\"n" + i + "\"}"));
+        }
+
+        List<TransformResult> results = transformer.transformBatch(sources, mapper.readTree(map));
+        assertResults(results);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            TransformPlan plan = TransformPlan.compile(mapper.readTree(map));
+            assertResults(transformer.transformBatch(sources.stream(), plan, executor));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private void assertResults(final List<TransformResult> results)
+    {
+        assertEquals(500, results.size());
+        for (TransformResult result : results)
+        {
+            int i = result.getIndex();
+            if (i == 7)
+            {
+                assertFalse(result.isSuccess());
+                assertTrue(result.getException() instanceof ObjectTransformerException);
+            }
+            else
+            {
+                assertTrue(result.isSuccess());
+                assertEquals("{\"id\":" + i + ",\"name\":\"n" + i + "!\"}", result.getTarget().toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.pros.jsontransform.constraint.Constraint;
+import com.pros.jsontransform.expression.Function;
+import com.pros.jsontransform.expression.FunctionHandler;
+import com.pros.jsontransform.filter.ArrayFilter;
+import com.pros.jsontransform.plugin.PluginManager;
+import com.pros.jsontransform.sort.ArraySort;
+
+public class HandlerRegistryTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+    }
+
+    @Test
+    public void testBuiltIns()
+    {
+        HandlerRegistry registry = new HandlerRegistry(new PluginManager("."), false, 1);
+
+        assertSame(Function.$APPEND, registry.getFunction("$append"));
+        assertSame(Function.$APPEND, registry.getFunction("$APPEND"));
+        assertSame(ArrayFilter.$CONTAINS, registry.getFilter("$contains"));
+        assertSame(Constraint.$REQUIRED, registry.getConstraint("$required"));
+        assertSame(ArraySort.$DESCENDING, registry.getSort("$descending"));
+    }
+
+    @Test
+    public void testPlugin()
+    {
+        HandlerRegistry registry = new HandlerRegistry(new PluginManager("."), false, 1);
+
+        FunctionHandler plugin = registry.getFunction("$com.example.Missing");
+        assertSame(plugin, registry.getFunction("$com.example.Missing"));
+        try
+        {
+            plugin.evaluate(
+                mapper.createObjectNode(),
+                MissingNode.getInstance(),
+                new TransformContext(new ObjectTransformer(mapper), MissingNode.getInstance()));
+            assertTrue(false);
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            assertTrue(otEx.getMessage().contains("com.example.Missing"));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonLinesTransformTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+    }
+
+    @Test
+    public void testOrderedLines() throws Exception
+    {
+        StringBuilder source = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+        {
+            if (i == 100)
+            {
+                // invalid JSON is skipped
+                source.append("{\"id\":\n");
+                continue;
+            }
+            source.append("{\"id\":").append(i).append(", \"other\":[1, 2, 3]}\n");
+            expected.append("{\"key\":").append(i).append("}\n");
+        }
+
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+        TransformPlan plan = TransformPlan.compile(mapper.readTree("{\"key\":{\"$value\":\"id\"}}"));
+        JsonLinesTransform linesTransform = new JsonLinesTransform(transformer, plan, 4, 16);
+
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        linesTransform.transform(new ByteArrayInputStream(source.toString().getBytes("UTF-8")), target);
+
+        assertEquals(expected.toString(), target.toString("UTF-8"));
+        assertEquals(2000, linesTransform.getLinesRead());
+        assertEquals(1999, linesTransform.getLinesWritten());
+        assertEquals(1, linesTransform.getLinesFailed());
+        assertEquals(0, linesTransform.getSourceQueueDepth());
+    }
+
+    @Test(timeout = 10000)
+    public void testWorkerError() throws Exception
+    {
+        // a mapper failing hard on one line, e.g. out of memory
+        ObjectMapper failingMapper = new ObjectMapper()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public JsonNode readTree(final String content) throws IOException
+            {
+                if (content.contains("fatal"))
+                {
+                    throw new LineError();
+                }
+                return super.readTree(content);
+            }
+        };
+
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+        {
+            source.append(i == 50 ? "{\"fatal\":true}\n" : "{\"id\":" + i + "}\n");
+        }
+
+        ObjectTransformer transformer = new ObjectTransformer(failingMapper);
+        TransformPlan plan = TransformPlan.compile(mapper.readTree("{\"key\":{\"$value\":\"id\"}}"));
+        JsonLinesTransform linesTransform = new JsonLinesTransform(transformer, plan, 4, 16);
+        try
+        {
+            linesTransform.transform(
+                new ByteArrayInputStream(source.toString().getBytes("UTF-8")), new ByteArrayOutputStream());
+            assertTrue(false);
+        }
+        catch (LineError err)
+        {
+            assertTrue(linesTransform.getLinesWritten() <= 50);
+        }
+    }
+
+    private static final class LineError extends Error
+    {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class ParallelArrayTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private static String map =
+        "{"
+        + "  \"lines\":{"
+        + "    \"$path\":\"lines\","
+        + "    %s"
+        + "    \"$structure\":[{"
+        + "      \"index\":{\"$expression\":[{\"$append_array_index\":{}}]},"
+        + "      \"sku\":{\"$value\":\"sku\"},"
+        + "      \"price\":{\"$value\":\"price\", \"$constraints\":[{\"$required\":true}]}"
+        + "    }],"
+        + "    \"$exclude\":[{\"$equals\":{\"$value\":\"price\", \"$what\":0}}]"
+        + "  },"
+        + "  \"sorted\":{"
+        + "    \"$path\":\"lines\","
+        + "    %s"
+        + "    \"$structure\":[{\"$value\":\"sku\"}],"
+        + "    \"$sort\":{\"$descending\":{\"$by\":{\"$value\":\".\"}}}"
+        + "  }"
+        + "}";
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+    }
+
+    @Test
+    public void testSameResultAsSequential() throws IOException, ObjectTransformerException
+    {
+        JsonNode source = createSource(5000, false);
+        JsonNode sequentialMap = mapper.readTree(String.format(map, "", ""));
+        JsonNode parallelMap = mapper.readTree(String.format(map, "\"$parallel\":100,", "\"$parallel\":true,"));
+
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+        JsonNode expected = transformer.transform(source, sequentialMap);
+        assertEquals(4000, expected.path("lines").size());
+        assertEquals(expected, transformer.transform(source, parallelMap));
+
+        // global threshold
+        Properties properties = new Properties();
+        properties.setProperty("parallel.array.threshold", "100");
+        assertEquals(expected, new ObjectTransformer(properties, mapper).transform(source, sequentialMap));
+    }
+
+    @Test
+    public void testLimit() throws IOException, ObjectTransformerException
+    {
+        JsonNode source = createSource(5000, false);
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+        JsonNode all = transformer.transform(source, mapper.readTree(String.format(map, "", "")));
+
+        String limit = "\"$offset\":3, \"$limit\":5,";
+        JsonNode sequentialMap = mapper.readTree(String.format(map, limit, limit));
+        JsonNode parallelMap = mapper.readTree(String.format(
+            map, limit + "\"$parallel\":100,", limit + "\"$parallel\":100,"));
+
+        JsonNode expected = transformer.transform(source, sequentialMap);
+        assertEquals(5, expected.path("lines").size());
+        assertEquals(5, expected.path("sorted").size());
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals(all.path("lines").get(i + 3), expected.path("lines").get(i));
+            assertEquals(all.path("sorted").get(i + 3), expected.path("sorted").get(i));
+        }
+        assertEquals(expected, transformer.transform(source, parallelMap));
+    }
+
+    @Test
+    public void testForkSharesLookupIndex() throws IOException
+    {
+        JsonNode source = mapper.readTree("{\"skus\":[{\"sku\":\"a\"}, {\"sku\":\"b\"}]}");
+        TransformContext context = new TransformContext(new ObjectTransformer(mapper), source);
+        TransformContext fork = context.fork();
+
+        assertSame(
+            fork.getArrayIndex(source.get("skus"), "sku"),
+            context.getArrayIndex(source.get("skus"), "sku"));
+        assertSame(source.get("skus").get(1), context.fork().getArrayIndex(source.get("skus"), "sku").get("b"));
+    }
+
+    @Test
+    public void testElementException() throws IOException
+    {
+        JsonNode source = createSource(5000, true);
+        JsonNode parallelMap = mapper.readTree(String.format(map, "\"$parallel\":100,", ""));
+
+        try
+        {
+            new ObjectTransformer(mapper).transform(source, parallelMap);
+            assertTrue(false);
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            assertTrue(otEx.getMessage().contains("required"));
+        }
+    }
+
+    private JsonNode createSource(final int size, final boolean missingPrice)
+    {
+        ObjectNode source = mapper.createObjectNode();
+        ArrayNode lines = source.putArray("lines");
+        for (int i = 0; i < size; i++)
+        {
+            ObjectNode line = lines.addObject();
+            line.put("sku", "sku" + i);
+            if (!missingPrice || i != size / 2)
+            {
+                line.put("price", i % 5);
+            }
+        }
+
+        return source;
+    }
+}
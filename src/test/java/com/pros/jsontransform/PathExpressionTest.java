@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pros.jsontransform.PathExpression.SegmentType;
+
+public class PathExpressionTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+    private static ObjectTransformer transformer;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+        transformer = new ObjectTransformer(mapper);
+    }
+
+    @Test
+    public void testSegments()
+    {
+        assertTrue(PathExpression.compile("|person").hasSegment(SegmentType.ROOT));
+        assertTrue(PathExpression.compile("..|name").hasSegment(SegmentType.PARENT));
+        assertTrue(PathExpression.compile("items|0").hasSegment(SegmentType.INDEX));
+        assertTrue(PathExpression.compile("items|$i").hasSegment(SegmentType.CURRENT_INDEX));
+        assertTrue(PathExpression.compile("items|name=Helen").hasSegment(SegmentType.SEARCH));
+        assertTrue(PathExpression.compile("items|name=$i").hasSegment(SegmentType.TEMPLATE));
+        assertTrue(PathExpression.compile("items|name==Helen").hasSegment(SegmentType.LOOKUP));
+        assertFalse(PathExpression.compile("items|name").hasSegment(SegmentType.INDEX));
+    }
+
+    @Test
+    public void testResolve() throws IOException, ObjectTransformerException
+    {
+        JsonNode source = mapper.readTree
+            ( "{"
+            + "  \"items\":[{\"name\":\"a1\", \"id\":1}, {\"name\":\"b2\", \"id\":2}],"
+            + "  \"person\":{\"name\":\"Paul\"}"
+            + "}"
+            );
+
+        assertEquals("b2", resolve(source, source, "items|1|name").asText());
+        assertEquals("b2", resolve(source, source, "items|name=b|name").asText());
+        assertEquals("Paul", resolve(source, source.get("person"), "|person|name").asText());
+        assertTrue(resolve(source, source, "items|7").isMissingNode());
+        assertTrue(resolve(source, source, "items|x=y").isArray());
+        assertEquals(2, resolve(source, source, "items|name==b2|id").asInt());
+        assertTrue(resolve(source, source, "items|name==b").isArray());
+    }
+
+    @Test
+    public void testTemplateOutsideArray() throws IOException
+    {
+        JsonNode source = mapper.readTree("{\"items\":[{\"name\":\"0\"}]}");
+        try
+        {
+            resolve(source, source, "items|name=$i");
+            assertTrue(false);
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            assertTrue(otEx.getMessage().contains("items|name=$i"));
+        }
+    }
+
+    private JsonNode resolve(
+        final JsonNode sourceRoot,
+        final JsonNode sourceNode,
+        final String path)
+    throws ObjectTransformerException
+    {
+        TransformContext context = new TransformContext(transformer, sourceRoot);
+        PathExpression pathExpression = PathExpression.compile(path);
+        JsonNode result = pathExpression.resolve(sourceNode, context);
+        pathExpression.restore(context);
+
+        assertEquals(1, context.sourceNodeParents.size());
+        assertEquals(0, context.sourceNodePath.length());
+
+        return result;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pros.jsontransform.constraint.ConstraintViolationException;
+
+public class StreamingTransformTest
+{
+    private static String pathToJson;
+    private static ObjectMapper mapper = new ObjectMapper();
+    private static ObjectTransformer transformer;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+        transformer = new ObjectTransformer(mapper);
+
+        pathToJson = JunitTools.getPathToExamples();
+    }
+
+    @Test
+    public void testExamples() throws IOException, ObjectTransformerException
+    {
+        String[] examples = {
+            "/arrays/NestedArrayOfObjects",
+            "/constraints/Validation",
+            "/fieldnames/FieldRenaming"
+        };
+
+        for (String example : examples)
+        {
+            String source = JunitTools.readFile(pathToJson + example + "Source.json");
+            JsonNode map = mapper.readTree(JunitTools.readFile(pathToJson + example + "Map.json"));
+            JsonNode target = mapper.readTree(JunitTools.readFile(pathToJson + example + "Target.json"));
+
+            assertEquals(example, target, mapper.readTree(transformStream(source, map)));
+        }
+    }
+
+    @Test
+    public void testStreamedArray() throws IOException, ObjectTransformerException
+    {
+        String source =
+            "{"
+            + "  \"header\":{\"ignored\":[1, 2, 3], \"id\":\"h1\"},"
+            + "  \"export\":{\"lines\":["
+            + "    {\"sku\":\"a\", \"price\":1.5},"
+            + "    {\"sku\":\"b\", \"price\":0},"
+            + "    {\"sku\":\"c\", \"price\":3}"
+            + "  ]},"
+            + "  \"currency\":\"USD\""
+            + "}";
+        JsonNode map = mapper.readTree
+            ( "{"
+            + "  \"id\":{\"$value\":\"header|id\"},"
+            + "  \"currency\":{\"$value\":\"currency\"},"
+            + "  \"lines\":{"
+            + "    \"$path\":\"export|lines\","
+            + "    \"$structure\":[{\"index\":{\"$expression\":[{\"$append_array_index\":{}}]}, \"sku\":{\"$value\":\"sku\"}}],"
+            + "    \"$exclude\":[{\"$equals\":{\"$value\":\"price\", \"$what\":0}}]"
+            + "  },"
+            + "  \"version\":1"
+            + "}"
+            );
+
+        JsonNode expected = transformer.transform(mapper.readTree(source), map);
+        assertEquals(expected, mapper.readTree(transformStream(source, map)));
+        assertEquals(2, expected.path("lines").size());
+        assertEquals("c", expected.path("lines").path(1).path("sku").asText());
+    }
+
+    @Test
+    public void testStreamedArrayLimit() throws IOException, ObjectTransformerException
+    {
+        String source = "{\"lines\":[{\"sku\":\"a\"}, {\"sku\":\"b\"}, {\"sku\":\"c\", \"tags\":[1, 2]}, {\"sku\":\"d\"}], \"after\":\"x\"}";
+        JsonNode map = mapper.readTree(
+            "{\"lines\":{\"$path\":\"lines\", \"$structure\":[{\"$value\":\"sku\"}], \"$offset\":1, \"$limit\":1},"
+            + "\"after\":{\"$value\":\"after\"}}");
+
+        JsonNode expected = transformer.transform(mapper.readTree(source), map);
+        assertEquals(mapper.readTree("{\"lines\":[\"b\"], \"after\":\"x\"}"), expected);
+        assertEquals(expected, mapper.readTree(transformStream(source, map)));
+    }
+
+    @Test
+    public void testStreamedGroupBySpill() throws IOException, ObjectTransformerException
+    {
+        StringBuilder source = new StringBuilder("{\"lines\":[");
+        for (int i = 0; i < 1000; i++)
+        {
+            source.append(i == 0 ? "" : ", ").append("{\"sku\":\"s").append(i % 37).append("\", \"qty\":").append(i).append("}");
+        }
+        source.append("]}");
+        JsonNode map = mapper.readTree(
+            "{\"lines\":{\"$path\":\"lines\", \"$groupBy\":{\"$value\":\"sku\"}, \"$structure\":[{"
+            + "\"sku\":{\"$value\":\"$key\"},"
+            + "\"qty\":{\"$value\":\"$group\", \"$expression\":[{\"$sum\":{\"$by\":{\"$value\":\"qty\"}}}]}"
+            + "}]}}");
+
+        File spillFolder = Files.createTempDirectory("groups").toFile();
+        spillFolder.deleteOnExit();
+        Properties properties = new Properties();
+        properties.setProperty("group.spill.threshold", "50");
+        properties.setProperty("group.spill.folder", spillFolder.getAbsolutePath());
+        ObjectTransformer spillTransformer = new ObjectTransformer(properties, mapper);
+
+        JsonNode expected = transformer.transform(mapper.readTree(source.toString()), map).path("lines");
+        JsonNode streamed = mapper.readTree(transformStream(spillTransformer, source.toString(), map)).path("lines");
+        assertEquals(37, expected.size());
+        assertEquals(qtyBySku(expected), qtyBySku(streamed));
+        assertEquals(0, spillFolder.list().length);
+
+        // without spill the groups keep the order of their first element
+        assertEquals(expected.toString(), mapper.readTree(transformStream(source.toString(), map)).path("lines").toString());
+    }
+
+    private Map<String, Long> qtyBySku(final JsonNode groups)
+    {
+        Map<String, Long> qtyBySku = new HashMap<String, Long>();
+        for (JsonNode group : groups)
+        {
+            qtyBySku.put(group.path("sku").asText(), group.path("qty").asLong());
+        }
+        return qtyBySku;
+    }
+
+    @Test
+    public void testRandomAccessRejected() throws IOException
+    {
+        String[] maps = {
+            "{\"name\":{\"$value\":\"..|name\"}}",
+            "{\"name\":{\"$value\":\"|person|name\"}}",
+            "{\"list\":{\"$path\":\"items\", \"$structure\":[{\"$value\":\".\"}], \"$sort\":{\"$ascending\":{}}}}"
+        };
+
+        for (String map : maps)
+        {
+            try
+            {
+                TransformPlan.compile(mapper.readTree(map)).checkStreamable();
+                fail(map);
+            }
+            catch (ObjectTransformerException otEx)
+            {
+                assertTrue(otEx.getMessage().startsWith("Cannot stream transform map"));
+            }
+        }
+    }
+
+    @Test
+    public void testViolationPath() throws IOException, ObjectTransformerException
+    {
+        String source = "{\"order\":{\"lines\":[{\"sku\":\"a\"}, {\"sku\":\"b\"}, {\"qty\":3}]}}";
+        JsonNode map = mapper.readTree(
+            "{\"order\":{\"$path\":\"order\", \"lines\":{\"$path\":\"lines\", \"$structure\":[{"
+            + "  \"sku\":{\"$value\":\"sku\", \"$constraints\":[{\"$required\":true}]}"
+            + "}]}}}");
+
+        String expected = null;
+        try
+        {
+            transformer.transform(mapper.readTree(source), map);
+            fail();
+        }
+        catch (ConstraintViolationException cvEx)
+        {
+            expected = cvEx.getSourceNodePath();
+        }
+        assertTrue(expected.endsWith("|order|lines|2"));
+
+        try
+        {
+            transformStream(source, map);
+            fail();
+        }
+        catch (ConstraintViolationException cvEx)
+        {
+            assertEquals(expected, cvEx.getSourceNodePath());
+        }
+    }
+
+    private String transformStream(
+        final String source,
+        final JsonNode map)
+    throws IOException, ObjectTransformerException
+    {
+        return transformStream(transformer, source, map);
+    }
+
+    private String transformStream(
+        final ObjectTransformer transformer,
+        final String source,
+        final JsonNode map)
+    throws IOException, ObjectTransformerException
+    {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = mapper.getFactory().createGenerator(writer);
+        transformer.transformStream(mapper.getFactory().createParser(source), TransformPlan.compile(map), generator);
+        generator.close();
+
+        return writer.toString();
+    }
+}
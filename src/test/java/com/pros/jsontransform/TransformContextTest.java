@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TransformContextTest
+{
+    private static String pathToJson;
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+
+        pathToJson = JunitTools.getPathToExamples() + "/arrays";
+    }
+
+    @Test
+    public void testSharedTransformer() throws Exception
+    {
+        final String jsonSource = JunitTools.readFile(pathToJson + "/NestedArrayOfObjectsSource.json");
+        final String jsonTransform = JunitTools.readFile(pathToJson + "/NestedArrayOfObjectsMap.json");
+        final JsonNode target = mapper.readTree(JunitTools.readFile(pathToJson + "/NestedArrayOfObjectsTarget.json"));
+
+        // one transformer serves all threads
+        final ObjectTransformer transformer = new ObjectTransformer(mapper);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 200; i++)
+            {
+                results.add(executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        return transformer.transform(jsonSource, jsonTransform);
+                    }
+                }));
+            }
+
+            for (Future<String> result : results)
+            {
+                assertTrue(mapper.readTree(result.get()).equals(target));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TransformMapRegistryTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+    }
+
+    @Test
+    public void testContentHash() throws IOException, ObjectTransformerException
+    {
+        TransformMapRegistry registry = new TransformMapRegistry(mapper, 10);
+        String map = "{\"name\":{\"$value\":\"name\"}}";
+
+        TransformPlan plan = registry.getOrCompile(map);
+        assertSame(plan, registry.getOrCompile(new String(map)));
+        assertEquals(1, registry.getMisses());
+        assertEquals(1, registry.getHits());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws IOException, ObjectTransformerException
+    {
+        TransformMapRegistry registry = new TransformMapRegistry(mapper, 2);
+        String mapA = "{\"a\":{\"$value\":\"a\"}}";
+        String mapB = "{\"b\":{\"$value\":\"b\"}}";
+        TransformPlan planA = registry.getOrCompile(mapA);
+        TransformPlan planB = registry.getOrCompile(mapB);
+        registry.getOrCompile(mapA);
+        registry.getOrCompile("{\"c\":{\"$value\":\"c\"}}");
+
+        assertEquals(1, registry.getEvictions());
+        assertEquals(2, registry.size());
+        assertSame(planA, registry.getOrCompile(mapA));
+        assertNotSame(planB, registry.getOrCompile(mapB));
+        assertEquals(2, registry.getHits());
+        assertEquals(4, registry.getMisses());
+    }
+
+    @Test
+    public void testRegisteredMapsAreKept() throws IOException, ObjectTransformerException
+    {
+        TransformMapRegistry registry = new TransformMapRegistry(mapper, 2);
+        TransformPlan plan = registry.register("prices", "{\"price\":{\"$value\":\"price\"}}");
+        for (int i = 0; i < 10; i++)
+        {
+            registry.getOrCompile("{\"f" + i + "\":{\"$value\":\"f\"}}");
+        }
+
+        assertEquals(8, registry.getEvictions());
+        assertSame(plan, registry.get("prices"));
+        assertEquals(3, registry.size());
+
+        registry.remove("prices");
+        try
+        {
+            registry.get("prices");
+            assertTrue(false);
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            assertTrue(otEx.getMessage().contains("prices"));
+        }
+    }
+
+    @Test
+    public void testTransformerCache() throws IOException, ObjectTransformerException
+    {
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+        String map = "{\"name\":{\"$value\":\"name\"}}";
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(
+                mapper.readTree("{\"name\":\"x\"}"),
+                mapper.readTree(transformer.transform("{\"name\":\"x\"}", map)));
+        }
+        assertEquals(2, transformer.getTransformMapRegistry().getHits());
+
+        Properties properties = new Properties();
+        properties.setProperty("transform.map.cache.size", "0");
+        assertNull(new ObjectTransformer(properties, mapper).getTransformMapRegistry());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TransformOutputTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+    private static String source = "{\"person\":{\"name\":\"Paul\", \"age\":40}}";
+    private static String map = "{\"name\":{\"$value\":\"person|name\"}, \"age\":{\"$value\":\"person|age\"}}";
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+    }
+
+    @Test
+    public void testCompactOutput() throws IOException, ObjectTransformerException
+    {
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+        JsonNode transformRoot = mapper.readTree(map);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        transformer.transform(source.getBytes("UTF-8"), transformRoot, bytes);
+        assertEquals("{\"name\":\"Paul\",\"age\":40}", bytes.toString("UTF-8"));
+
+        bytes.reset();
+        transformer.transform(new ByteArrayInputStream(source.getBytes("UTF-8")), transformRoot, bytes);
+        transformer.transform(new ByteArrayInputStream(source.getBytes("UTF-8")), transformRoot, bytes);
+        assertEquals("{\"name\":\"Paul\",\"age\":40}{\"name\":\"Paul\",\"age\":40}", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testPrettyOutput() throws IOException, ObjectTransformerException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("output.pretty.print", "true");
+        ObjectTransformer transformer = new ObjectTransformer(properties, mapper);
+
+        StringWriter writer = new StringWriter();
+        transformer.transform(new StringReader(source), mapper.readTree(map), writer);
+        assertTrue(writer.toString().contains("\n"));
+        assertEquals(transformer.transform(source, map), writer.toString());
+    }
+}
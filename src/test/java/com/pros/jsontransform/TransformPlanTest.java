@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class TransformPlanTest
+{
+    private static String pathToJson;
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+
+        pathToJson = JunitTools.getPathToExamples() + "/arrays";
+    }
+
+    @Test
+    public void testPlanReuse() throws IOException, ObjectTransformerException
+    {
+        JsonNode source = mapper.readTree(JunitTools.readFile(pathToJson + "/ArrayMergeSource.json"));
+        JsonNode map = mapper.readTree(JunitTools.readFile(pathToJson + "/ArrayMergeMap.json"));
+        JsonNode target = mapper.readTree(JunitTools.readFile(pathToJson + "/ArrayMergeTarget.json"));
+
+        TransformPlan plan = TransformPlan.compile(map);
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(transformer.transform(source, plan).equals(target));
+        }
+    }
+
+    @Test
+    public void testLiteralsAndComments() throws IOException, ObjectTransformerException
+    {
+        JsonNode map = mapper.readTree
+            ( "{"
+            + "  \"$comment\":\"ignored\","
+            + "  \"version\":2,"
+            + "  \"name\":{\"$value\":\"person|name\"},"
+            + "  \"tags\":[\"a\", {\"$value\":\"person|name\"}]"
+            + "}"
+            );
+
+        TransformPlan plan = TransformPlan.compile(map);
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+        JsonNode result = transformer.transform(mapper.readTree("{\"person\":{\"name\":\"Paul\"}}"), plan);
+
+        assertEquals("{\"version\":2,\"name\":\"Paul\",\"tags\":[\"a\",\"Paul\"]}", result.toString());
+    }
+
+    @Test
+    public void testMapNotModified() throws IOException, ObjectTransformerException
+    {
+        String pathToExpressions = JunitTools.getPathToExamples() + "/expressions";
+        JsonNode source = mapper.readTree(JunitTools.readFile(pathToExpressions + "/ExpressionsSource.json"));
+        JsonNode map = mapper.readTree(JunitTools.readFile(pathToExpressions + "/ExpressionsMap.json"));
+        JsonNode mapCopy = map.deepCopy();
+
+        TransformPlan plan = TransformPlan.compile(map);
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+        JsonNode target = transformer.transform(source, plan);
+
+        // functions return their results and leave the map as it was
+        assertEquals(mapCopy, map);
+
+        // the id is a random UUID
+        JsonNode nextTarget = transformer.transform(source, plan);
+        assertEquals(((ObjectNode)target).without("id"), ((ObjectNode)nextTarget).without("id"));
+    }
+
+    @Test (expected=ObjectTransformerException.class)
+    public void testMapNotAnObject() throws IOException, ObjectTransformerException
+    {
+        TransformPlan.compile(mapper.readTree("[]"));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.pros.jsontransform.constraint.ConstraintViolationException;
+
+public class ValidationReportTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private static String map =
+        "{"
+        + "  \"lines\":{"
+        + "    \"$path\":\"lines\","
+        + "    %s"
+        + "    \"$structure\":[{"
+        + "      \"sku\":{\"$value\":\"sku\", \"$constraints\":[{\"$required\":true}, {\"$type\":\"string\"}]},"
+        + "      \"status\":{\"$value\":\"status\", \"$constraints\":[{\"$values\":[\"open\", \"closed\"]}]},"
+        + "      \"price\":{\"$value\":\"price\", \"$constraints\":[{\"$range\":{\"greater-than\":0, \"less-than\":100}}]}"
+        + "    }]"
+        + "  }"
+        + "}";
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+    }
+
+    @Test
+    public void testCollectAll() throws IOException, ObjectTransformerException
+    {
+        TransformPlan plan = TransformPlan.compile(mapper.readTree(String.format(map, "")));
+        ValidationReport report = new ValidationReport();
+        JsonNode target = new ObjectTransformer(mapper).transform(createSource(1000), plan, report);
+
+        // every 10th line has no sku, so no string, every 5th a wrong status, every 4th a wrong price
+        assertEquals(1000, target.path("lines").size());
+        assertEquals(100 * 2 + 200 + 250, report.getViolationCount());
+        assertFalse(report.isValid());
+
+        List<ConstraintViolationException> violations = report.getViolations();
+        ConstraintViolationException first = violations.get(0);
+        assertEquals("$required", first.getConstraintName());
+        assertEquals("sku", first.getTransformNodeFieldName());
+        assertEquals("|0", first.getSourceNodePath().substring(first.getSourceNodePath().lastIndexOf('|')));
+        assertTrue(first.getValueNode().isMissingNode());
+        assertEquals(0, first.getStackTrace().length);
+        assertEquals("$type", violations.get(1).getConstraintName());
+        assertEquals("$values", violations.get(2).getConstraintName());
+        assertEquals("$range", violations.get(3).getConstraintName());
+        assertTrue(violations.get(4).getSourceNodePath().endsWith("|4"));
+    }
+
+    @Test
+    public void testMaxViolations() throws IOException, ObjectTransformerException
+    {
+        String parallelMap = String.format(map, "\"$parallel\":100,");
+        ValidationReport report = new ValidationReport(10);
+        new ObjectTransformer(mapper).transform(createSource(1000), TransformPlan.compile(mapper.readTree(parallelMap)), report);
+
+        assertEquals(650, report.getViolationCount());
+        assertEquals(10, report.getViolations().size());
+        report.clear();
+        assertTrue(report.isValid());
+    }
+
+    @Test
+    public void testValidateOnly() throws IOException, ObjectTransformerException
+    {
+        String validationMap = "{"
+            + "\"copy\":{\"$path\":\"lines\", \"$structure\":[{\"$value\":\"sku\"}]},"
+            + "\"header\":{\"$path\":\"header\", \"id\":{\"$value\":\"id\", \"$constraints\":[{\"$required\":true}]}},"
+            + String.format(map, "\"$include\":[{\"$notIn\":{\"$value\":\"price\", \"$what\":[100]}}],").substring(1);
+        TransformPlan plan = TransformPlan.compile(mapper.readTree(validationMap));
+        JsonNode source = createSource(1000);
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+
+        ValidationReport transformReport = new ValidationReport();
+        transformer.transform(source, plan, transformReport);
+        ValidationReport report = new ValidationReport();
+        transformer.validate(source, plan, report);
+
+        // the header has no id, lines with a wrong price are not included
+        assertEquals(1 + 50 * 2 + 150, report.getViolationCount());
+        assertEquals(transformReport.toString(), report.toString());
+        assertEquals(
+            report.getViolationCount(),
+            transformer.validate(source, mapper.readTree(validationMap)).getViolationCount());
+    }
+
+    @Test
+    public void testFailFast() throws IOException
+    {
+        try
+        {
+            new ObjectTransformer(mapper).transform(createSource(10), mapper.readTree(String.format(map, "")));
+            fail();
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            assertTrue(otEx instanceof ConstraintViolationException);
+            assertEquals("Constraint violation [$required] on transform node sku", otEx.getMessage());
+        }
+    }
+
+    @Test
+    public void testTransformNodeConstraints() throws IOException, ObjectTransformerException
+    {
+        // transform nodes outside the plan, e.g. passed by a plugin, are compiled once
+        JsonNode transformNode = mapper.readTree(
+            "{\"$value\":\"status\", \"$constraints\":[{\"$values\":[\"open\", \"closed\"]}]}");
+        ObjectTransformer transformer = new ObjectTransformer(mapper);
+        TransformContext context = new TransformContext(transformer, MissingNode.getInstance());
+        context.validationReport = new ValidationReport();
+        for (JsonNode line : createSource(10).path("lines"))
+        {
+            transformer.transformExpression(line, transformNode, context);
+        }
+
+        assertEquals(2, context.validationReport.getViolationCount());
+        assertSame(
+            context.getConstraints(transformNode.path("$constraints")),
+            context.getConstraints(transformNode.path("$constraints")));
+    }
+
+    @Test
+    public void testUnknownType() throws IOException
+    {
+        try
+        {
+            TransformPlan.compile(mapper.readTree("{\"a\":{\"$value\":\"a\", \"$constraints\":[{\"$type\":\"date\"}]}}"));
+            fail();
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            assertTrue(otEx.getMessage().contains("date"));
+        }
+    }
+
+    private JsonNode createSource(final int size)
+    {
+        ObjectNode source = mapper.createObjectNode();
+        ArrayNode lines = source.putArray("lines");
+        for (int i = 0; i < size; i++)
+        {
+            ObjectNode line = lines.addObject();
+            if (i % 10 != 0)
+            {
+                line.put("sku", "sku" + i);
+            }
+            line.put("status", i % 5 == 0 ? "lost" : "open");
+            line.put("price", i % 4 == 0 ? 100 : 50);
+        }
+
+        return source;
+    }
+}
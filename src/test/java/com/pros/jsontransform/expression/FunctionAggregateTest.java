@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pros.jsontransform.ObjectTransformer;
+import com.pros.jsontransform.ObjectTransformerException;
+
+public class FunctionAggregateTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+    private static ObjectTransformer transformer = new ObjectTransformer(mapper);
+
+    private static String source =
+        "{"
+        + "  \"lines\":["
+        + "    {\"sku\":\"a\", \"qty\":2, \"price\":0.1},"
+        + "    {\"sku\":\"b\", \"qty\":5, \"price\":0.2},"
+        + "    {\"sku\":\"c\", \"price\":\"n/a\"},"
+        + "    {\"sku\":\"d\", \"qty\":-1, \"price\":1.5}"
+        + "  ],"
+        + "  \"counts\":[1, 2, 3],"
+        + "  \"person\":{\"carCount\":2, \"boatCount\":1}"
+        + "}";
+
+    @Test
+    public void testAggregates() throws IOException, ObjectTransformerException
+    {
+        JsonNode target = transform(
+            "{"
+            + "  \"qty\":{\"$value\":\"lines\", \"$expression\":[{\"$sum\":{\"$by\":{\"$value\":\"qty\"}}}]},"
+            + "  \"price\":{\"$value\":\"lines\", \"$expression\":[{\"$sum\":{\"$by\":{\"$value\":\"price\"}}}]},"
+            + "  \"avg\":{\"$value\":\"lines\", \"$expression\":[{\"$avg\":{\"$by\":{\"$value\":\"qty\"}}}]},"
+            + "  \"min\":{\"$value\":\"lines\", \"$expression\":[{\"$min\":{\"$by\":{\"$value\":\"qty\"}}}]},"
+            + "  \"max\":{\"$value\":\"lines\", \"$expression\":[{\"$max\":{\"$by\":{\"$value\":\"price\"}}}]},"
+            + "  \"lines\":{\"$value\":\"lines\", \"$expression\":[{\"$count\":{}}]},"
+            + "  \"priced\":{\"$value\":\"lines\", \"$expression\":[{\"$count\":{\"$by\":{\"$value\":\"qty\"}}}]},"
+            + "  \"counts\":{\"$value\":\"counts\", \"$expression\":[{\"$sum\":{}}]}"
+            + "}");
+
+        // $sum returns a double whatever its argument, as $sum with $what does
+        assertTrue(target.path("qty").isDouble());
+        assertEquals(6, target.path("qty").doubleValue(), 0);
+        assertTrue(target.path("price").isDouble());
+        assertEquals(1.8, target.path("price").doubleValue(), 1e-9);
+        assertEquals(2, target.path("avg").doubleValue(), 0);
+        assertEquals(-1, target.path("min").asLong());
+        assertEquals(1.5, target.path("max").doubleValue(), 0);
+        assertEquals(4, target.path("lines").asInt());
+        assertEquals(3, target.path("priced").asInt());
+        assertTrue(target.path("counts").isDouble());
+        assertEquals(6, target.path("counts").asLong());
+    }
+
+    @Test
+    public void testDecimal() throws IOException, ObjectTransformerException
+    {
+        JsonNode target = transform(
+            "{"
+            + "  \"sum\":{\"$value\":\"lines\", \"$expression\":"
+            + "    [{\"$sum\":{\"$by\":{\"$value\":\"price\"}, \"$decimal\":true}}]},"
+            + "  \"avg\":{\"$value\":\"lines\", \"$expression\":"
+            + "    [{\"$avg\":{\"$by\":{\"$value\":\"price\"}, \"$decimal\":true}}]}"
+            + "}");
+
+        assertEquals(0, new BigDecimal("1.8").compareTo(target.path("sum").decimalValue()));
+        assertEquals(0, new BigDecimal("0.6").compareTo(target.path("avg").decimalValue()));
+    }
+
+    @Test
+    public void testEmptyAndOverflow() throws IOException, ObjectTransformerException
+    {
+        JsonNode target = transform(
+            "{"
+            + "  \"avg\":{\"$value\":\"missing\", \"$expression\":[{\"$avg\":{}}]},"
+            + "  \"sum\":{\"$value\":\"missing\", \"$expression\":[{\"$count\":{}}]}"
+            + "}");
+        assertTrue(target.path("avg").isNull());
+        assertEquals(0, target.path("sum").asInt());
+
+        FunctionAggregate.Accumulator accumulator = new FunctionAggregate.Accumulator(false);
+        accumulator.add(mapper.readTree(String.valueOf(Long.MAX_VALUE)));
+        accumulator.add(mapper.readTree("1"));
+        assertEquals(Long.MAX_VALUE + 1.0, accumulator.getSum().doubleValue(), 0);
+    }
+
+    @Test
+    public void testSumWhat() throws IOException, ObjectTransformerException
+    {
+        JsonNode target = transform(
+            "{\"vehicles\":{\"$expression\":[{\"$sum\":{\"$what\":"
+            + "[{\"$value\":\"person|carCount\"}, {\"$value\":\"person|boatCount\"}]}}]}}");
+
+        assertTrue(target.path("vehicles").isDouble());
+        assertEquals(3, target.path("vehicles").doubleValue(), 0);
+    }
+
+    private JsonNode transform(final String map) throws IOException, ObjectTransformerException
+    {
+        return transformer.transform(mapper.readTree(source), mapper.readTree(map));
+    }
+}
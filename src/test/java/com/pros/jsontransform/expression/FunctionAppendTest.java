@@ -27,6 +27,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pros.jsontransform.ObjectTransformer;
 import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
 
 public class FunctionAppendTest
 {
@@ -46,7 +47,7 @@ public class FunctionAppendTest
         JsonNode result = FunctionAppend.evaluate(
             object.get("args"),
             object.get("value"),
-            transformer);
+            new TransformContext(transformer, object));
 
         assertEquals("wrong result", "hello world", result.asText());
     }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.expression;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.pros.jsontransform.ObjectTransformer;
+import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
+
+public class FunctionReplaceTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+    private static ObjectTransformer transformer = new ObjectTransformer(mapper);
+
+    @Test
+    public void testReplaceInPlace() throws IOException, ObjectTransformerException
+    {
+        assertEquals("Louis Louis", replace("Chris Chris", "Chr", "Lou"));
+        assertEquals("aaaa", replace("aa", "a", "aa"));
+        assertEquals("b", replace("aaaab", "aa", ""));
+        assertEquals("xaxbx", replace("ab", "", "x"));
+        assertEquals("none", replace("none", "z", "y"));
+    }
+
+    @Test
+    public void testTextFunctionChain() throws IOException, ObjectTransformerException
+    {
+        JsonNode source = mapper.readTree(
+            "{\"people\":[{\"first\":\"Chris\", \"last\":\"Doe\"}, {\"first\":\"Ann\", \"last\":\"Roe\"}]}");
+        JsonNode map = mapper.readTree(
+            "{\"labels\":{"
+            + "  \"$path\":\"people\","
+            + "  \"$structure\":[{"
+            + "    \"$value\":\"first\","
+            + "    \"$expression\":["
+            + "      {\"$append\":{\"$what\":\" \"}},"
+            + "      {\"$append\":{\"$what\":{\"$value\":\"last\"}}},"
+            + "      {\"$replace\":{\"$what\":\"Chr\", \"$with\":\"Lou\"}},"
+            + "      {\"$append\":{\"$what\":\" #\"}},"
+            + "      {\"$append_array_index\":{}},"
+            + "      {\"$append\":{\"$what\":\"/$i\"}},"
+            + "      {\"$sum\":{\"$what\":[]}},"
+            + "      {\"$append\":{\"$what\":\"!\"}}"
+            + "    ]"
+            + "  }]"
+            + "}}");
+
+        // $sum ends the text chain, the text is not a number
+        assertEquals(
+            mapper.readTree("{\"labels\":[\"0.0!\", \"0.0!\"]}"),
+            transformer.transform(source, map));
+
+        ((ArrayNode)map.path("labels").path("$structure").get(0)
+            .path("$expression")).remove(6);
+        assertEquals(
+            mapper.readTree("{\"labels\":[\"Louis Doe #0/0!\", \"Ann Roe #1/1!\"]}"),
+            transformer.transform(source, map));
+    }
+
+    private String replace(final String value, final String what, final String with)
+    throws IOException, ObjectTransformerException
+    {
+        JsonNode args = mapper.createObjectNode().put("$what", what).put("$with", with);
+        return FunctionReplace.evaluate(
+            args, mapper.getNodeFactory().textNode(value), new TransformContext(transformer, args)).asText();
+    }
+}
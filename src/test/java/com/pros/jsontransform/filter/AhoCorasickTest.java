@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AhoCorasickTest
+{
+    @Test
+    public void testOverlappingPatterns()
+    {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("he", "she", "hers", "his"));
+        assertTrue(automaton.find("ushers"));
+        assertTrue(automaton.find("this"));
+        assertTrue(automaton.find("ahishers"));
+        assertFalse(automaton.find("hxs"));
+        assertFalse(automaton.find(""));
+    }
+
+    @Test
+    public void testFailureLinks()
+    {
+        // "abcd" fails on x and must continue with "bcx" from "bc"
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("abcd", "bcx"));
+        assertTrue(automaton.find("abcx"));
+        assertFalse(automaton.find("abcy"));
+        assertTrue(automaton.find("ababcd"));
+    }
+
+    @Test
+    public void testEmptyPattern()
+    {
+        assertTrue(new AhoCorasick(Arrays.asList("x", "")).find("abc"));
+        assertFalse(new AhoCorasick(Collections.<String>emptyList()).find("abc"));
+    }
+
+    @Test
+    public void testSameAsContains()
+    {
+        Random random = new Random(42);
+        String alphabet = "abc\u00e9\u20ac\u4e2d";
+        List<String> patterns = new ArrayList<String>();
+        for (int i = 0; i < 200; i++)
+        {
+            patterns.add(randomText(random, alphabet, 2 + random.nextInt(4)));
+        }
+
+        AhoCorasick automaton = new AhoCorasick(patterns);
+        for (int i = 0; i < 2000; i++)
+        {
+            String text = randomText(random, alphabet + "xyz", random.nextInt(12));
+            boolean expected = false;
+            for (String pattern : patterns)
+            {
+                expected |= text.contains(pattern);
+            }
+            assertEquals(text, expected, automaton.find(text));
+        }
+    }
+
+    private String randomText(final Random random, final String alphabet, final int length)
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.pros.jsontransform.JunitTools;
+import com.pros.jsontransform.ObjectTransformer;
+import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
+import com.pros.jsontransform.TransformPlan;
+
+public class ArrayFilterMatcherTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+    }
+
+    @Test
+    public void testFind()
+    {
+        assertSame(ArrayFilter.$NOTIN, ArrayFilter.find("$notIn"));
+        assertSame(ArrayFilter.$MATCHES, ArrayFilter.find("$MATCHES"));
+        assertNull(ArrayFilter.find("com.acme.Filter"));
+    }
+
+    @Test
+    public void testIn() throws IOException, ObjectTransformerException
+    {
+        StringBuilder values = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++)
+        {
+            values.append(i == 0 ? "" : ",").append('"').append("s").append(i).append('"');
+        }
+        JsonNode arguments = mapper.readTree("{\"$what\":" + values.append("]") + "}");
+
+        ArrayFilterMatcher in = ArrayFilter.$IN.compile(arguments);
+        ArrayFilterMatcher notIn = ArrayFilter.$NOTIN.compile(arguments);
+        assertTrue(in.matches(TextNode.valueOf("s999")));
+        assertFalse(in.matches(TextNode.valueOf("s1000")));
+        assertFalse(in.matches(MissingNode.getInstance()));
+        assertFalse(notIn.matches(TextNode.valueOf("s1")));
+        assertTrue(notIn.matches(MissingNode.getInstance()));
+    }
+
+    @Test
+    public void testInNeedsArray() throws IOException
+    {
+        try
+        {
+            ArrayFilter.$IN.compile(mapper.readTree("{\"$what\":\"open\"}"));
+            fail();
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            assertTrue(otEx.getMessage().contains("$in"));
+        }
+    }
+
+    @Test
+    public void testMatches() throws IOException, ObjectTransformerException
+    {
+        ArrayFilterMatcher matches = ArrayFilter.$MATCHES.compile(mapper.readTree("{\"$what\":\"[a-c]+[0-9]?\"}"));
+        assertTrue(matches.matches(TextNode.valueOf("abc1")));
+        assertFalse(matches.matches(TextNode.valueOf("xabc1")));
+        assertFalse(matches.matches(IntNode.valueOf(1)));
+        assertFalse(matches.matches(NullNode.getInstance()));
+    }
+
+    @Test
+    public void testInvalidPattern() throws IOException
+    {
+        try
+        {
+            TransformPlan.compile(mapper.readTree(
+                "{\"list\":{\"$path\":\"list\", \"$structure\":[{\"$value\":\".\"}],"
+                + "\"$include\":[{\"$matches\":{\"$what\":\"[a-\"}}]}}"));
+            fail();
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            assertTrue(otEx.getMessage().startsWith("Invalid $matches pattern"));
+        }
+    }
+
+    @Test
+    public void testEvaluateSameAsCompiled() throws IOException, ObjectTransformerException
+    {
+        TransformContext context = new TransformContext(new ObjectTransformer(mapper), MissingNode.getInstance());
+        JsonNode filterNode = mapper.readTree("{\"$in\":{\"$value\":\"status\", \"$what\":[\"open\", \"pending\"]}}");
+        JsonNode element = mapper.readTree("{\"status\":\"pending\"}");
+
+        assertEquals(
+            ArrayFilter.$IN.compile(filterNode.get("$in")).matches(element.get("status")),
+            ArrayFilter.$IN.evaluate(filterNode, element, context));
+        assertTrue(ArrayFilter.$IN.evaluate(filterNode, element, context));
+        assertFalse(ArrayFilter.$NOTIN.evaluate(mapper.readTree(
+            "{\"$notIn\":{\"$value\":\"status\", \"$what\":[\"pending\"]}}"), element, context));
+    }
+
+    @Test
+    public void testEvaluateCompilesOnce() throws IOException, ObjectTransformerException
+    {
+        TransformContext context = new TransformContext(new ObjectTransformer(mapper), MissingNode.getInstance());
+        JsonNode filterNode = mapper.readTree("{\"$matches\":{\"$value\":\"sku\", \"$what\":\"^[A-Z]{3}-[0-9]+$\"}}");
+
+        ArrayFilterMatcher matcher = context.getFilterMatcher(ArrayFilter.$MATCHES, filterNode);
+        assertTrue(ArrayFilter.$MATCHES.evaluate(filterNode, mapper.readTree("{\"sku\":\"ABC-12\"}"), context));
+        assertFalse(ArrayFilter.$MATCHES.evaluate(filterNode, mapper.readTree("{\"sku\":\"abc\"}"), context));
+        assertSame(matcher, context.getFilterMatcher(ArrayFilter.$MATCHES, filterNode));
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.pros.jsontransform.JunitTools;
+import com.pros.jsontransform.ObjectTransformer;
+import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
+
+public class PluginManagerTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+    private static String pluginFolder;
+    private static String servicePluginFolder;
+    private static String reloadPluginFolder;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+
+        // plugin classes of this test are found by the parent class loader,
+        // the folders only need a jar
+        pluginFolder = createPluginFolder();
+        servicePluginFolder = createPluginFolder(Discount.class.getName());
+        reloadPluginFolder = createPluginFolder(Version.class.getName(), Reload.class.getName());
+    }
+
+    private static String createPluginFolder(final String... functionPluginClassNames) throws IOException
+    {
+        File folder = Files.createTempDirectory("plugins").toFile();
+        folder.deleteOnExit();
+        createPluginJar(new File(folder, "plugins.jar"), functionPluginClassNames);
+
+        return folder.getAbsolutePath();
+    }
+
+    private static void createPluginJar(final File jar, final String... functionPluginClassNames) throws IOException
+    {
+        jar.deleteOnExit();
+        try (JarOutputStream jarStream = new JarOutputStream(new FileOutputStream(jar)))
+        {
+            if (functionPluginClassNames.length > 0)
+            {
+                jarStream.putNextEntry(new JarEntry("META-INF/services/" + FunctionPlugin.class.getName()));
+                jarStream.write(String.join("\n", functionPluginClassNames).getBytes(StandardCharsets.UTF_8));
+                jarStream.closeEntry();
+            }
+        }
+    }
+
+    public static class UpperCase
+    {
+        public static JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final TransformContext context)
+        {
+            return TextNode.valueOf(valueNode.asText().toUpperCase());
+        }
+    }
+
+    public static class NotEmpty
+    {
+        public static Boolean evaluate(
+            final JsonNode filterNode,
+            final JsonNode elementNode,
+            final TransformContext context)
+        {
+            return !elementNode.asText().isEmpty();
+        }
+    }
+
+    public static class LegacyUpperCase
+    {
+        public static JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final ObjectTransformer transformer)
+        {
+            return TextNode.valueOf(valueNode.asText().toUpperCase());
+        }
+    }
+
+    public static class LegacyNotEmpty
+    {
+        public static boolean evaluate(
+            final JsonNode filterNode,
+            final JsonNode elementNode,
+            final ObjectTransformer transformer)
+        {
+            return transformer != null && !elementNode.asText().isEmpty();
+        }
+    }
+
+    public static class LegacyLookUp
+    {
+        @SuppressWarnings("deprecation")
+        public static JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final ObjectTransformer transformer)
+        throws ObjectTransformerException
+        {
+            // the element being transformed and an expression on it
+            return TextNode.valueOf(transformer.getSourceNode().path("id").asText()
+                + ":" + transformer.transformExpression(transformer.getSourceNode(), argsNode).asText());
+        }
+    }
+
+    public static class NotStatic
+    {
+        public JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final TransformContext context)
+        {
+            return valueNode;
+        }
+    }
+
+    public static class Discount implements FunctionPlugin
+    {
+        static final AtomicInteger warmUps = new AtomicInteger();
+
+        @Override
+        public String getName()
+        {
+            return "$discount";
+        }
+
+        @Override
+        public void warmUp()
+        {
+            warmUps.incrementAndGet();
+        }
+
+        @Override
+        public JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final TransformContext context)
+        {
+            return DoubleNode.valueOf(valueNode.asDouble() * (1 - argsNode.path("$what").asDouble()));
+        }
+    }
+
+    public static class Version implements FunctionPlugin
+    {
+        @Override
+        public String getName()
+        {
+            return "$version";
+        }
+
+        @Override
+        public JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final TransformContext context)
+        {
+            return LongNode.valueOf(context.getPluginVersion());
+        }
+    }
+
+    public static class Reload implements FunctionPlugin
+    {
+        @Override
+        public String getName()
+        {
+            return "$reload";
+        }
+
+        @Override
+        public JsonNode evaluate(
+            final JsonNode argsNode,
+            final JsonNode valueNode,
+            final TransformContext context)
+        {
+            context.getTransformer().reloadPlugins();
+            return LongNode.valueOf(context.getTransformer().getPluginVersion());
+        }
+    }
+
+    @Test
+    public void testReloadKeepsRunningVersion() throws IOException, ObjectTransformerException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("plugin.folder", reloadPluginFolder);
+        try (ObjectTransformer transformer = new ObjectTransformer(properties, mapper))
+        {
+            JsonNode map = mapper.readTree(
+                "{"
+                + "\"reloaded\":{\"$expression\":[{\"$reload\":{}}]},"
+                + "\"used\":{\"$expression\":[{\"$version\":{}}]}"
+                + "}");
+
+            JsonNode target = transformer.transform(mapper.createObjectNode(), map);
+            assertEquals(2, target.path("reloaded").asLong());
+            assertEquals(1, target.path("used").asLong());
+
+            map = mapper.readTree("{\"used\":{\"$expression\":[{\"$version\":{}}]}}");
+            assertEquals(2, transformer.transform(mapper.createObjectNode(), map).path("used").asLong());
+        }
+    }
+
+    @Test
+    public void testReloadOnFolderChange() throws IOException, InterruptedException
+    {
+        String folder = createPluginFolder(Version.class.getName());
+        Properties properties = new Properties();
+        properties.setProperty("plugin.folder", folder);
+        properties.setProperty("plugin.reload", "true");
+        try (ObjectTransformer transformer = new ObjectTransformer(properties, mapper))
+        {
+            assertEquals(1, transformer.getPluginVersion());
+
+            createPluginJar(new File(folder, "more-plugins.jar"), Discount.class.getName());
+            long timeout = System.currentTimeMillis() + 10000;
+            while (transformer.getPluginVersion() == 1 && System.currentTimeMillis() < timeout)
+            {
+                Thread.sleep(50);
+            }
+            assertEquals(2, transformer.getPluginVersion());
+        }
+    }
+
+    @Test
+    public void testServicePlugin() throws IOException, ObjectTransformerException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("plugin.folder", servicePluginFolder);
+        properties.setProperty("plugin.warm.up", "true");
+        int warmUps = Discount.warmUps.get();
+        ObjectTransformer transformer = new ObjectTransformer(properties, mapper);
+        assertEquals(warmUps + 1, Discount.warmUps.get());
+
+        JsonNode source = mapper.readTree("{\"price\":200}");
+        JsonNode map = mapper.readTree(
+            "{\"price\":{\"$value\":\"price\", \"$expression\":[{\"$DISCOUNT\":{\"$what\":0.25}}]}}");
+
+        assertEquals(150, transformer.transform(source, map).path("price").asDouble(), 0);
+        assertEquals(1, new PluginManager(servicePluginFolder).loadServicePlugins(FunctionPlugin.class).size());
+        assertTrue(new PluginManager(pluginFolder).loadServicePlugins(FunctionPlugin.class).isEmpty());
+    }
+
+    @Test
+    public void testFunctionPlugin() throws IOException, ObjectTransformerException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("plugin.folder", pluginFolder);
+        ObjectTransformer transformer = new ObjectTransformer(properties, mapper);
+
+        JsonNode source = mapper.readTree("{\"names\":[\"a\", \"\", \"b\"]}");
+        JsonNode map = mapper.readTree(
+            "{\"names\":{"
+            + "  \"$path\":\"names\","
+            + "  \"$structure\":[{"
+            + "    \"$value\":\".\","
+            + "    \"$expression\":[{\"$" + UpperCase.class.getName() + "\":{}}]"
+            + "  }],"
+            + "  \"$include\":[{\"$" + NotEmpty.class.getName() + "\":{}}]"
+            + "}}");
+
+        assertEquals(mapper.readTree("{\"names\":[\"A\", \"B\"]}"), transformer.transform(source, map));
+    }
+
+    @Test
+    public void testLegacyPlugin() throws IOException, ObjectTransformerException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("plugin.folder", pluginFolder);
+        ObjectTransformer transformer = new ObjectTransformer(properties, mapper);
+
+        JsonNode source = mapper.readTree("{\"names\":[\"a\", \"\", \"b\"]}");
+        JsonNode map = mapper.readTree(
+            "{\"names\":{"
+            + "  \"$path\":\"names\","
+            + "  \"$structure\":[{"
+            + "    \"$value\":\".\","
+            + "    \"$expression\":[{\"$" + LegacyUpperCase.class.getName() + "\":{}}]"
+            + "  }],"
+            + "  \"$include\":[{\"$" + LegacyNotEmpty.class.getName() + "\":{}}]"
+            + "}}");
+
+        assertEquals(mapper.readTree("{\"names\":[\"A\", \"B\"]}"), transformer.transform(source, map));
+    }
+
+    @Test
+    public void testLegacyPluginUsesTransformer() throws IOException, ObjectTransformerException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("plugin.folder", pluginFolder);
+        ObjectTransformer transformer = new ObjectTransformer(properties, mapper);
+        JsonNode source = mapper.readTree("{\"items\":[{\"id\":1, \"name\":\"a\"}, {\"id\":2, \"name\":\"b\"}]}");
+        JsonNode map = mapper.readTree(
+            "{\"items\":{"
+            + "  \"$path\":\"items\","
+            + "  \"$structure\":[{\"label\":{"
+            + "    \"$expression\":[{\"$" + LegacyLookUp.class.getName() + "\":"
+            + "      {\"$value\":\"name\", \"$expression\":[{\"$" + UpperCase.class.getName() + "\":{}}]}}]"
+            + "  }}]"
+            + "}}");
+
+        assertEquals(
+            mapper.readTree("{\"items\":[{\"label\":\"1:A\"}, {\"label\":\"2:B\"}]}"),
+            transformer.transform(source, map));
+        try
+        {
+            transformer.getSourceNode();
+            assertTrue(false);
+        }
+        catch (IllegalStateException isEx)
+        {
+            assertTrue(isEx.getMessage().contains("ObjectTransformer"));
+        }
+    }
+
+    @Test
+    public void testHandlersAreCached() throws ObjectTransformerException
+    {
+        PluginManager pluginManager = new PluginManager(pluginFolder);
+        TransformContext context = new TransformContext(new ObjectTransformer(mapper), MissingNode.getInstance());
+
+        assertSame(
+            pluginManager.getFunctionPlugin(UpperCase.class.getName()),
+            pluginManager.getFunctionPlugin(UpperCase.class.getName()));
+        assertEquals("X", pluginManager.functionPluginEvaluate(
+            UpperCase.class.getName(), MissingNode.getInstance(), TextNode.valueOf("x"), context).asText());
+        assertFalse(pluginManager.filterPluginEvaluate(
+            NotEmpty.class.getName(), MissingNode.getInstance(), TextNode.valueOf(""), context));
+    }
+
+    @Test
+    public void testMethodNotStatic()
+    {
+        PluginManager pluginManager = new PluginManager(pluginFolder);
+        try
+        {
+            pluginManager.getFunctionPlugin(NotStatic.class.getName()).evaluate(
+                MissingNode.getInstance(),
+                TextNode.valueOf("x"),
+                new TransformContext(new ObjectTransformer(mapper), MissingNode.getInstance()));
+            assertTrue(false);
+        }
+        catch (ObjectTransformerException otEx)
+        {
+            assertTrue(otEx.getMessage().contains(NotStatic.class.getName()));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2016 PROS, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.pros.jsontransform.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.pros.jsontransform.JunitTools;
+import com.pros.jsontransform.ObjectTransformer;
+import com.pros.jsontransform.ObjectTransformerException;
+import com.pros.jsontransform.TransformContext;
+
+public class ArraySortAbstractTest
+{
+    private static ObjectMapper mapper = new ObjectMapper();
+    private static TransformContext context;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception
+    {
+        JunitTools.setUpBeforeClass();
+        context = new TransformContext(new ObjectTransformer(mapper), MissingNode.getInstance());
+    }
+
+    @Test
+    public void testStable() throws IOException, ObjectTransformerException
+    {
+        ArrayNode array = (ArrayNode)mapper.readTree(
+            "[{\"k\":2, \"id\":\"a\"}, {\"k\":1, \"id\":\"b\"}, {\"k\":2, \"id\":\"c\"}, {\"k\":1, \"id\":\"d\"}]");
+
+        ArraySort.$DESCENDING.sort(array, mapper.readTree("{\"$descending\":{\"$by\":{\"$value\":\"k\"}}}"), context);
+        assertEquals("acbd", ids(array));
+
+        ArraySort.$ASCENDING.sort(array, mapper.readTree("{\"$ascending\":{\"$by\":{\"$value\":\"k\"}}}"), context);
+        assertEquals("bdac", ids(array));
+    }
+
+    @Test
+    public void testTexts() throws IOException, ObjectTransformerException
+    {
+        ArrayNode array = (ArrayNode)mapper.readTree("[\"pear\", \"apple\", \"fig\"]");
+        ArraySort.$ASCENDING.sort(array, mapper.readTree("{\"$ascending\":{\"$by\":{\"$value\":\".\"}}}"), context);
+
+        assertEquals(mapper.readTree("[\"apple\", \"fig\", \"pear\"]"), array);
+    }
+
+    @Test (expected=ObjectTransformerException.class)
+    public void testWrongType() throws IOException, ObjectTransformerException
+    {
+        ArrayNode array = (ArrayNode)mapper.readTree("[2, 1]");
+        ArraySort.sortByKeys(
+            array, mapper.readTree("[{\"$ascending\":{\"$by\":{\"$value\":\".\"}, \"$type\":\"color\"}}]"), context);
+    }
+
+    @Test
+    public void testLargeArray() throws IOException, ObjectTransformerException
+    {
+        int size = ArraySortAbstract.PARALLEL_SORT_THRESHOLD * 2;
+        ArrayNode array = mapper.createArrayNode();
+        for (int i = 0; i < size; i++)
+        {
+            ObjectNode element = array.addObject();
+            element.put("k", (i * 7919) % 1000);
+            element.put("i", i);
+        }
+
+        ArraySort.$ASCENDING.sort(array, mapper.readTree("{\"$ascending\":{\"$by\":{\"$value\":\"k\"}}}"), context);
+
+        assertEquals(size, array.size());
+        for (int i = 1; i < size; i++)
+        {
+            JsonNode previous = array.get(i - 1);
+            JsonNode element = array.get(i);
+            int order = Integer.compare(previous.get("k").asInt(), element.get("k").asInt());
+            assertTrue(order < 0 || order == 0 && previous.get("i").asInt() < element.get("i").asInt());
+        }
+    }
+
+    private static String ids(final ArrayNode array)
+    {
+        StringBuilder ids = new StringBuilder();
+        for (JsonNode element : array)
+        {
+            ids.append(element.get("id").asText());
+        }
+        return ids.toString();
+    }
+}